@@ -0,0 +1,83 @@
+package com.github.graphql.feder;
+
+import graphql.GraphQL;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.SelectedField;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Build the <code>_entities</code> request for a realistic selection with arguments and nested fields:
+ * with the compiled {@link EntitiesRequest.Template} already cached (the hot path), with a fresh template,
+ * and the request for a batch of representations.
+ */
+@State(Scope.Benchmark)
+public class EntitiesRequestBenchmark {
+    private static final String SDL = """
+        type Product {
+          id: ID
+          name: String
+          description: String
+          price(currency: String): Int
+          reviews(first: Int): [Review]
+        }
+
+        type Review {
+          text: String
+          stars: Int
+        }
+
+        type Query {
+          product(id: ID): Product
+        }
+        """;
+    private static final String QUERY = "{product(id:\"1\"){id name description price(currency:\"EUR\") reviews(first:3){text stars}}}";
+
+    @Param({"1", "100"})
+    int batchSize;
+
+    private GraphQLObjectType objectType;
+    private List<SelectedField> selectedFields;
+    private LruCache<String, EntitiesRequest.Template> templates;
+    private EntitiesRequest entitiesRequest;
+    private List<Map<String, Object>> representations;
+
+    @Setup public void setup() {
+        var schema = new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(SDL), RuntimeWiring.newRuntimeWiring()
+            .type("Query", wiring -> wiring.dataFetcher("product", env -> {
+                // capture the selection of a real execution, as it can't be built without one
+                objectType = (GraphQLObjectType) env.getFieldType();
+                selectedFields = EntitiesRequest.selectedFields(objectType, env.getSelectionSet());
+                return null;
+            }))
+            .build());
+        GraphQL.newGraphQL(schema).build().execute(QUERY);
+
+        templates = new LruCache<>(1000);
+        entitiesRequest = new EntitiesRequest(templates, objectType, Set.of("id"), selectedFields);
+        representations = IntStream.range(0, batchSize).mapToObj(i -> EntitiesRequest.representation("Product", Map.of("id", Integer.toString(i)))).toList();
+    }
+
+    @Benchmark public EntitiesRequest cachedTemplate() {
+        return new EntitiesRequest(templates, objectType, Set.of("id"), selectedFields);
+    }
+
+    @Benchmark public EntitiesRequest newTemplate() {
+        return new EntitiesRequest(new LruCache<>(1), objectType, Set.of("id"), selectedFields);
+    }
+
+    @Benchmark public GraphQLAPI.GraphQLRequest request() {
+        return entitiesRequest.request(representations);
+    }
+}
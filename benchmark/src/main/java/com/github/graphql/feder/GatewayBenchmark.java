@@ -0,0 +1,48 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A complete {@link GraphQLGateway#request} over the product, price, and review {@link StubSubgraph}s,
+ * for one product or a batch of products, i.e. parsing (or the document cache), execution, fetching, and merging.
+ */
+@State(Scope.Benchmark)
+public class GatewayBenchmark {
+    @Param({"1", "20"})
+    int products;
+
+    private final GraphQLGateway gateway = new GraphQLGateway();
+    private String query;
+
+    @Setup public void setup() {
+        var supergraph = new Supergraph();
+        supergraph.documentCacheSize = 1000;
+        supergraph.persistedQueryCacheSize = 1000;
+        supergraph.planCacheSize = 1000;
+        supergraph.schemaTimeout = 10;
+        supergraph.builders = List.of(StubSubgraph.product().builder(), StubSubgraph.price().builder(), StubSubgraph.review().builder());
+        supergraph.reload();
+        gateway.supergraph = supergraph;
+
+        query = IntStream.range(0, products)
+            .mapToObj(i -> "p" + i + ":product(id:\"" + i + "\"){id name price{tag} reviews{text stars}}")
+            .collect(Collectors.joining(" ", "{", "}"));
+        var response = gateway.request(query, null);
+        if (response.hasErrors()) throw new IllegalStateException("unexpected errors: " + response.getErrors());
+    }
+
+    @Benchmark public GraphQLResponse request() {
+        var response = gateway.request(query, null);
+        response.getData(); // build the JSON, as the response writer would stream it
+        return response;
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/** Convert an <code>_entities</code> response of some products with prices and reviews between JSON-P and Java maps */
+@State(Scope.Benchmark)
+public class JsonMapperBenchmark {
+    @Param({"10", "100", "1000"})
+    int entities;
+
+    private JsonObject json;
+    private Map<String, Object> map;
+
+    @Setup public void setup() {
+        var array = Json.createArrayBuilder();
+        for (int i = 0; i < entities; i++) {
+            array.add(Json.createObjectBuilder()
+                .add("__typename", "Product")
+                .add("id", Integer.toString(i))
+                .add("name", "Product " + i)
+                .add("description", "The description of product " + i)
+                .add("price", Json.createObjectBuilder()
+                    .add("parts", Json.createArrayBuilder().add(399).add(99))
+                    .add("tag", "399.99 €"))
+                .add("reviews", Json.createArrayBuilder()
+                    .add(Json.createObjectBuilder().add("text", "great").add("stars", 5).add("user", Json.createObjectBuilder().add("slug", "u1")))
+                    .add(Json.createObjectBuilder().add("text", "okay").add("stars", 3).addNull("user"))));
+        }
+        json = Json.createObjectBuilder().add("_entities", array).build();
+        map = JsonMapper.map(json);
+    }
+
+    @Benchmark public Map<String, Object> map() {
+        return JsonMapper.map(json);
+    }
+
+    @Benchmark public JsonObject toJson() {
+        return JsonMapper.toJson(map);
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.graphql.feder;
+
+import graphql.schema.GraphQLSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Merge the schemas of N services that each contribute some fields and a type of their own to a shared entity;
+ * and build the services from their SDL, which happens before every merge of a changed service.
+ */
+@State(Scope.Benchmark)
+public class SchemaMergerBenchmark {
+    @Param({"2", "8", "32"})
+    int services;
+
+    private List<StubSubgraph> subgraphs;
+    private List<FederatedGraphQLService> built;
+
+    @Setup public void setup() {
+        subgraphs = IntStream.range(0, services).mapToObj(SchemaMergerBenchmark::subgraph).toList();
+        built = subgraphs.stream().map(StubSubgraph::service).toList();
+    }
+
+    private static StubSubgraph subgraph(int i) {
+        return new StubSubgraph("service" + i, """
+            type Product @key(fields: "id") {
+              id: ID
+              name%1$d: String
+              count%1$d: Int
+              details%1$d(locale: String): Details%1$d
+            }
+
+            type Details%1$d {
+              text: String
+              tags: [String]
+            }
+
+            enum Kind%1$d { A B C }
+
+            type Query {
+              product(id: ID): Product
+              kind%1$d: Kind%1$d
+            }
+            """.formatted(i), id -> Map.of("id", id));
+    }
+
+    @Benchmark public GraphQLSchema merge() {
+        return SchemaMerger.merge(built);
+    }
+
+    @Benchmark public GraphQLSchema buildAndMerge() {
+        return SchemaMerger.merge(subgraphs.stream().map(StubSubgraph::service).toList());
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import lombok.RequiredArgsConstructor;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An in-memory subgraph: it returns its SDL for <code>{_service{sdl}}</code> and
+ * answers <code>_entities</code> requests with all fields of the entity for each representation,
+ * so the benchmarks measure the gateway and not the network.
+ */
+@RequiredArgsConstructor
+class StubSubgraph implements GraphQLAPI {
+    final String name;
+    final String sdl;
+    private final Function<String, Map<String, Object>> entity;
+
+    FederatedSchemaBuilder builder() {
+        return new FederatedSchemaBuilder(name, URI.create("urn:stub:" + name), this);
+    }
+
+    FederatedGraphQLService service() {
+        return new FederatedGraphQLService(builder(), sdl);
+    }
+
+    @Override public GraphQLResponse request(GraphQLRequest request) {
+        if (request.getQuery().startsWith("{_service")) {
+            return GraphQLResponse.builder()
+                .data(Json.createObjectBuilder().add("_service", Json.createObjectBuilder().add("sdl", sdl)).build())
+                .build();
+        }
+        var entities = Json.createArrayBuilder();
+        request.getVariables().getJsonArray("representations").getValuesAs(JsonObject.class).forEach(representation -> {
+            var id = ((JsonString) representation.get("id")).getString();
+            entities.add(Json.createObjectBuilder(entity.apply(id))
+                .add("__typename", representation.getString("__typename")));
+        });
+        return GraphQLResponse.builder()
+            .data(Json.createObjectBuilder().add("_entities", entities).build())
+            .build();
+    }
+
+    @Override public String schema() {return sdl;}
+
+    static StubSubgraph product() {
+        return new StubSubgraph("product", """
+            type Product @key(fields: "id") {
+              id: ID
+              name: String
+              description: String
+            }
+
+            type Query {
+              product(id: ID): Product
+            }
+            """, id -> Map.of("id", id, "name", "Product " + id, "description", "The description of product " + id));
+    }
+
+    static StubSubgraph price() {
+        return new StubSubgraph("price", """
+            type Product @extends @key(fields: "id") {
+              id: ID @external
+              price: Price
+            }
+
+            type Price {
+              parts: [Int]
+              tag(locale: String): String
+            }
+
+            type Query {
+              product(id: ID): Product
+            }
+            """, id -> Map.of("id", id, "price", Map.of("parts", List.of(399, 99), "tag", "399.99 €")));
+    }
+
+    static StubSubgraph review() {
+        return new StubSubgraph("review", """
+            type Product @extends @key(fields: "id") {
+              id: ID @external
+              reviews: [Review]
+            }
+
+            type Review {
+              text: String
+              stars: Int
+            }
+
+            type Query {
+              product(id: ID): Product
+            }
+            """, id -> Map.of("id", id, "reviews", List.of(
+            Map.of("text", "great", "stars", 5),
+            Map.of("text", "okay", "stars", 3))));
+    }
+}
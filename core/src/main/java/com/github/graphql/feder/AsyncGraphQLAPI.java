@@ -0,0 +1,27 @@
+package com.github.graphql.feder;
+
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The MicroProfile REST client interface for the federated services, with a non-blocking variant of
+ * {@link #request(GraphQLRequest)}, so a subgraph call doesn't pin a thread for the whole round-trip.
+ * The gateway itself only implements the synchronous {@link GraphQLAPI}.
+ */
+@Path("/graphql")
+public interface AsyncGraphQLAPI extends GraphQLAPI {
+    @Produces(APPLICATION_GRAPHQL_JSON_TYPE)
+    @POST CompletionStage<GraphQLResponse> requestAsync(GraphQLRequest request);
+
+    /** The raw response body, so it can be decoded with a streaming parser; the caller has to close it */
+    @Produces(APPLICATION_GRAPHQL_JSON_TYPE)
+    @POST InputStream requestStream(GraphQLRequest request);
+
+    /** The raw response body, so it can be decoded with a streaming parser; the caller has to close it */
+    @Produces(APPLICATION_GRAPHQL_JSON_TYPE)
+    @POST CompletionStage<InputStream> requestStreamAsync(GraphQLRequest request);
+}
@@ -0,0 +1,134 @@
+package com.github.graphql.feder;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending requests to one service when too many of the last requests failed or were slow,
+ * so a degraded service fails its fields at once, instead of tying up the gateway until the timeouts.
+ * <p>
+ * The circuit opens when at least the <code>failureRate</code> (or the <code>slowCallRate</code>) percent of the last
+ * <code>window</code> requests failed (or took longer than the <code>slowCallDuration</code>).
+ * After the <code>openDuration</code>, one trial request is let through: if it succeeds, the circuit closes again;
+ * otherwise it stays open for another <code>openDuration</code>. A window or rate of zero or less disables the circuit breaker or that rate.
+ */
+@Slf4j
+class CircuitBreaker {
+    static final CircuitBreaker NONE = new CircuitBreaker("", 0, 0, 0, Duration.ZERO, Duration.ZERO);
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String service;
+    private final int window;
+    private final int failureRate;
+    private final int slowCallRate;
+    private final long slowCallNanos;
+    private final long openNanos;
+    /** Replaceable in tests */
+    LongSupplier nanoTime = System::nanoTime;
+
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int next;
+    private int calls;
+    private int failureCount;
+    private int slowCallCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /** @param slowCallDuration zero disables the slow call rate */
+    CircuitBreaker(String service, int window, int failureRate, int slowCallRate, Duration slowCallDuration, Duration openDuration) {
+        this.service = service;
+        this.window = window;
+        this.failureRate = failureRate;
+        this.slowCallRate = slowCallRate;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.openNanos = openDuration.toNanos();
+        this.failures = new boolean[Math.max(window, 0)];
+        this.slowCalls = new boolean[Math.max(window, 0)];
+    }
+
+    /**
+     * May a request be sent now? Every permitted request must be paired with a {@link #record(boolean, long)}
+     * or an {@link #ignore()}.
+     */
+    synchronized boolean tryAcquire() {
+        if (window <= 0) return true;
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> {
+                if (nanoTime.getAsLong() - openedAt < openNanos) yield false;
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                log.info("circuit breaker for service {} is half-open: send a trial request", service);
+                yield true;
+            }
+            case HALF_OPEN -> {
+                if (trialInFlight) yield false;
+                trialInFlight = true;
+                yield true;
+            }
+        };
+    }
+
+    /** The outcome of a permitted request */
+    synchronized void record(boolean failed, long nanos) {
+        if (window <= 0) return;
+        var slow = slowCallNanos > 0 && nanos > slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            if (failed || slow) open();
+            else close();
+            return;
+        }
+        if (state == State.OPEN) return; // a request sent before the circuit opened
+        if (calls == window) {
+            if (failures[next]) failureCount--;
+            if (slowCalls[next]) slowCallCount--;
+        } else {
+            calls++;
+        }
+        failures[next] = failed;
+        slowCalls[next] = slow;
+        if (failed) failureCount++;
+        if (slow) slowCallCount++;
+        next = (next + 1) % window;
+        if (calls == window && (exceeds(failureCount, failureRate) || (slowCallNanos > 0 && exceeds(slowCallCount, slowCallRate)))) open();
+    }
+
+    /** A permitted request that says nothing about the health of the service, e.g. it was rejected by the {@link ConcurrencyLimit} */
+    synchronized void ignore() {
+        if (state == State.HALF_OPEN) trialInFlight = false;
+    }
+
+    synchronized State state() {return state;}
+
+    FederationException openException() {
+        return new OpenException("[from service " + service + "]: circuit breaker is open");
+    }
+
+    private boolean exceeds(int count, int ratePercent) {return ratePercent > 0 && count * 100 >= ratePercent * window;}
+
+    private void open() {
+        log.warn("open circuit breaker for service {}: {} of the last {} requests failed and {} were slow",
+            service, failureCount, calls, slowCallCount);
+        state = State.OPEN;
+        openedAt = nanoTime.getAsLong();
+    }
+
+    private void close() {
+        log.info("close circuit breaker for service {}", service);
+        state = State.CLOSED;
+        calls = next = failureCount = slowCallCount = 0;
+        Arrays.fill(failures, false);
+        Arrays.fill(slowCalls, false);
+    }
+
+    static class OpenException extends FederationException {
+        OpenException(String message) {super(message);}
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.graphql.feder;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Limits the number of requests in flight to one service, so a slow service can't tie up the whole gateway.
+ * Requests beyond the limit wait in a queue without blocking a thread, so even millions of cheap virtual threads
+ * can't flood a service. A maximum of zero or less means unlimited.
+ * <p>
+ * The queue can be bounded, and a request can wait only for a limited time; with a maximum queue of zero,
+ * requests beyond the limit fail fast. Either way, they fail with a {@link LimitExceededException}.
+ */
+class ConcurrencyLimit {
+    private static final CompletableFuture<Void> GRANTED = completedFuture(null);
+
+    private final int max;
+    private final int maxQueue;
+    private final Duration queueTimeout;
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    ConcurrencyLimit(int max) {this(max, -1, null);}
+
+    /**
+     * @param maxQueue     the maximum number of waiting requests; less than zero is unlimited
+     * @param queueTimeout the maximum time a request waits; <code>null</code> or zero is unlimited
+     */
+    ConcurrencyLimit(int max, int maxQueue, Duration queueTimeout) {
+        this.max = max;
+        this.maxQueue = maxQueue;
+        this.queueTimeout = (queueTimeout == null || queueTimeout.isZero() || queueTimeout.isNegative()) ? null : queueTimeout;
+    }
+
+    /** The returned future completes when the request may be sent. Every granted acquire must be paired with a {@link #release()} */
+    CompletableFuture<Void> acquire() {
+        if (max <= 0) return GRANTED;
+        var permit = new CompletableFuture<Void>();
+        synchronized (this) {
+            if (inFlight < max) {
+                inFlight++;
+                return GRANTED;
+            }
+            if (maxQueue >= 0 && waiting.size() >= maxQueue)
+                return failedFuture(new LimitExceededException(max + " requests in flight and " + waiting.size() + " waiting"));
+            waiting.add(permit);
+        }
+        if (queueTimeout != null) {
+            CompletableFuture.delayedExecutor(queueTimeout.toMillis(), MILLISECONDS).execute(() -> {
+                boolean timedOut;
+                synchronized (this) {
+                    timedOut = waiting.remove(permit); // otherwise it was already handed over
+                }
+                if (timedOut) permit.completeExceptionally(new LimitExceededException("waited more than " + queueTimeout.toMillis() + "ms"));
+            });
+        }
+        return permit;
+    }
+
+    void release() {
+        if (max <= 0) return;
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        next.complete(null); // the permit is handed over, so `inFlight` stays the same
+    }
+
+    synchronized int inFlight() {return inFlight;}
+
+    synchronized int waiting() {return waiting.size();}
+
+    static class LimitExceededException extends FederationException {
+        LimitExceededException(String message) {super(message);}
+    }
+}
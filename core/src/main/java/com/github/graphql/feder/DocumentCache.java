@@ -0,0 +1,79 @@
+package com.github.graphql.feder;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQueryCacheMiss;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static graphql.execution.preparsed.persisted.PersistedQuerySupport.PERSISTED_QUERY_MARKER;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Caches the parsed and validated documents by query text and operation name,
+ * as clients send the same few operations over and over again.
+ * The cached documents are only valid for one schema, so every {@link Supergraph.Version} has its own cache.
+ * <p>
+ * Requests with an Apollo <code>persistedQuery</code> extension are cached by the hash of the query instead,
+ * so clients can leave out the query text once the gateway knows it. Only valid documents are stored.
+ */
+class DocumentCache implements PreparsedDocumentProvider {
+    private final LruCache<Key, PreparsedDocumentEntry> cache;
+    private final LruCache<Object, PreparsedDocumentEntry> persistedQueries;
+    private final PersistedQuerySupport persistedQuerySupport = new ApolloPersistedQuerySupport(this::persistedQuery);
+
+    DocumentCache(int maxSize) {
+        this(maxSize, maxSize);
+    }
+
+    DocumentCache(int maxSize, int maxPersistedQueries) {
+        this.cache = new LruCache<>(maxSize);
+        this.persistedQueries = new LruCache<>(maxPersistedQueries);
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(ExecutionInput executionInput,
+                                                                      Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate) {
+        if (executionInput.getExtensions().containsKey(PERSISTED_QUERY)) {
+            return persistedQuerySupport.getDocumentAsync(executionInput, parseAndValidate);
+        }
+        var key = new Key(executionInput.getQuery(), executionInput.getOperationName());
+        return completedFuture(cache.computeIfAbsent(key, k -> parseAndValidate.apply(executionInput)));
+    }
+
+    private CompletableFuture<PreparsedDocumentEntry> persistedQuery(Object hash, ExecutionInput executionInput,
+                                                                     PersistedQueryCacheMiss onMiss) {
+        var entry = persistedQueries.get(hash);
+        if (entry == null) {
+            var query = executionInput.getQuery();
+            if (query == null || query.isBlank() || query.equals(PERSISTED_QUERY_MARKER)) throw new PersistedQueryNotFound(hash);
+            entry = onMiss.apply(query);
+            if (!entry.hasErrors()) persistedQueries.put(hash, entry);
+        }
+        return completedFuture(entry);
+    }
+
+    void clear() {
+        cache.clear();
+        persistedQueries.clear();
+    }
+
+    int size() {return cache.size();}
+
+    long hits() {return cache.hits();}
+
+    long misses() {return cache.misses();}
+
+    int persistedQueries() {return persistedQueries.size();}
+
+    @Override public String toString() {return "DocumentCache(" + cache + ")";}
+
+    private static final String PERSISTED_QUERY = "persistedQuery";
+
+    private record Key(String query, String operationName) {}
+}
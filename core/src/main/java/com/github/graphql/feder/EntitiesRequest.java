@@ -3,18 +3,16 @@ package com.github.graphql.feder;
 import com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
 import graphql.schema.DataFetchingFieldSelectionSet;
 import graphql.schema.GraphQLAppliedDirectiveArgument;
-import graphql.schema.GraphQLFieldDefinition;
 import graphql.schema.GraphQLNamedType;
 import graphql.schema.GraphQLObjectType;
-import graphql.schema.GraphQLSchema;
 import graphql.schema.SelectedField;
 import jakarta.json.Json;
 import jakarta.json.JsonObject;
-import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,51 +20,156 @@ import java.util.stream.Collectors;
 
 import static com.github.graphql.feder.JsonMapper.toJson;
 import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+/**
+ * The selection part of an <code>_entities</code> query, i.e. everything but the representations.
+ * The {@link #request(List) request} can then be built for a batch of representations at once.
+ * <p>
+ * For a given type and selection shape, the query is always the same; only the argument values differ.
+ * So we compile a {@link Template} once per shape and the hot path only has to bind the arguments.
+ */
 @Slf4j
 class EntitiesRequest {
-    @Getter private final GraphQLRequest request;
-    private final List<SelectedField> selectedFields;
-
-    EntitiesRequest(GraphQLSchema schema, String typeName, String idFieldName, String idValue, DataFetchingFieldSelectionSet selectionSet) {
-        var objectType = schema.getObjectType(typeName);
-        var availableFields = availableFieldNames(objectType);
-        this.selectedFields = selectedFields(availableFields, selectionSet);
-        this.request = (selectedFields.isEmpty() || selectedOnly(idFieldName))
-            ? null
-            : new RequestBuilder(objectType)
-            .withRepresentations(idFieldName, idValue)
-            .withFields(selectedFields)
-            .build();
+    private final Template template;
+    private final Map<String, Object> arguments;
+
+    /** The top-level fields of the selection that the type has, i.e. that this service can fetch */
+    static List<SelectedField> selectedFields(GraphQLObjectType objectType, DataFetchingFieldSelectionSet selectionSet) {
+        return selectionSet.getImmediateFields().stream()
+            .filter(selectedField -> objectType.getFieldDefinition(selectedField.getName()) != null)
+            .collect(toList());
     }
 
-    private static List<String> availableFieldNames(GraphQLObjectType type) {
-        return type.getFieldDefinitions().stream()
-            .map(GraphQLFieldDefinition::getName)
-            .toList();
+    /** The shape of one selected field together with the values of its arguments */
+    static String fieldKey(SelectedField selectedField) {
+        var shape = new Shape("");
+        shape.addField(selectedField);
+        return shape.key() + shape.arguments;
     }
 
-    private List<SelectedField> selectedFields(List<String> availableFields, DataFetchingFieldSelectionSet selectionSet) {
-        return selectionSet.getFields().stream()
-            .filter(selectedField -> availableFields.contains(selectedField.getName()))
-            .sorted(comparing(SelectedField::getName))
-            .collect(toList());
+    /** The values of the arguments of a selected field and its sub-fields, i.e. the variables it needs */
+    static Map<String, Object> arguments(SelectedField selectedField) {
+        var shape = new Shape("");
+        shape.addField(selectedField);
+        return shape.arguments;
+    }
+
+    /** @param keyFieldNames the fields we already know, so we don't have to fetch them alone */
+    EntitiesRequest(LruCache<String, Template> templates, GraphQLObjectType objectType, Set<String> keyFieldNames,
+                    List<SelectedField> selectedFields) {
+        this(templates, objectType, keyFieldNames, selectedFields, null);
+    }
+
+    /** Request the fields of a {@link FieldSet}, e.g. the fields another service <code>@requires</code> */
+    EntitiesRequest(LruCache<String, Template> templates, GraphQLObjectType objectType, FieldSet fieldSet) {
+        this(templates, objectType, Set.of(), List.of(), fieldSet);
+    }
+
+    /**
+     * @param keyFieldNames the fields we already know, so we don't have to fetch them alone
+     * @param fieldSet more fields to fetch, e.g. the fields another service <code>@requires</code>; optional
+     */
+    EntitiesRequest(LruCache<String, Template> templates, GraphQLObjectType objectType, Set<String> keyFieldNames,
+                    List<SelectedField> selectedFields, FieldSet fieldSet) {
+        var shape = new Shape(objectType.getName());
+        shape.addFields(selectedFields);
+        var moreFields = (fieldSet == null) ? null : fieldSet.without(fieldNames(selectedFields));
+        var fieldSetKey = (moreFields == null || moreFields.isEmpty()) ? "" : "@" + moreFields.selection();
+        this.template = templates.computeIfAbsent(shape.key() + keyFieldNames + fieldSetKey,
+            key -> Template.compile(objectType, keyFieldNames, selectedFields, fieldSetKey.isEmpty() ? null : moreFields));
+        this.arguments = shape.arguments;
     }
 
-    private boolean selectedOnly(String idFieldName) {
-        return selectedFields.size() == 1 && selectedFields.get(0).getName().equals(idFieldName);
+    boolean isEmpty() {return template.query == null;}
+
+    /** @param values the key fields, and the fields the service <code>@requires</code> */
+    static Map<String, Object> representation(String typeName, Map<String, Object> values) {
+        var representation = new LinkedHashMap<String, Object>();
+        representation.put("__typename", typeName);
+        representation.putAll(values);
+        return representation;
+    }
+
+    GraphQLRequest request(List<Map<String, Object>> representations) {
+        var variables = Json.createObjectBuilder()
+            .add(REPRESENTATIONS, toJson(representations));
+        arguments.forEach((name, value) -> variables.add(name, toJson(value)));
+        return GraphQLRequest.builder()
+            .query(template.query)
+            .variables(variables.build())
+            .build();
     }
 
     Set<String> selectedFieldNames() {
-        return fieldNames(selectedFields);
+        return template.selectedFieldNames;
     }
 
     private static Set<String> fieldNames(List<SelectedField> fields) {
         return fields.stream().map(SelectedField::getName).collect(toSet());
     }
 
+    private static final String REPRESENTATIONS = "representations";
+
+    /**
+     * Normalized key of the type and the selected fields with the names of their arguments, and the argument values.
+     * The arguments are sent as variables named like the argument; as before, the first value wins for duplicate names.
+     */
+    private static class Shape {
+        private final StringBuilder key;
+        private Map<String, Object> arguments = Map.of();
+
+        private Shape(String typeName) {this.key = new StringBuilder(typeName);}
+
+        private String key() {return key.toString();}
+
+        private void addFields(List<SelectedField> selectedFields) {
+            key.append('{');
+            selectedFields.forEach(this::addField);
+            key.append('}');
+        }
+
+        private void addField(SelectedField selectedField) {
+            key.append(selectedField.getName());
+            if (!selectedField.getArguments().isEmpty()) {
+                key.append('(');
+                selectedField.getArguments().forEach((name, value) -> {
+                    key.append(name).append(' ');
+                    if (arguments.isEmpty()) arguments = new LinkedHashMap<>();
+                    arguments.putIfAbsent(name, value);
+                });
+                key.append(')');
+            }
+            var subFields = selectedField.getSelectionSet().getImmediateFields();
+            if (!subFields.isEmpty())
+                addFields(subFields);
+            key.append(' ');
+        }
+    }
+
+    /** The compiled query for one type and selection shape, or <code>null</code> if there is nothing to fetch */
+    @RequiredArgsConstructor
+    static class Template {
+        private static Template compile(GraphQLObjectType objectType, Set<String> keyFieldNames, List<SelectedField> selectedFields,
+                                        FieldSet fieldSet) {
+            var sortedFields = selectedFields.stream().sorted(comparing(SelectedField::getName)).collect(toList());
+            var fieldNames = sortedFields.stream().map(SelectedField::getName).collect(toCollection(LinkedHashSet::new));
+            if (fieldSet != null) fieldNames.addAll(fieldSet.names());
+            var query = (fieldSet == null && keyFieldNames.containsAll(fieldNames))
+                ? null
+                : new RequestBuilder(objectType)
+                .withRepresentations()
+                .withFields(sortedFields, fieldSet)
+                .query();
+            return new Template(query, fieldNames);
+        }
+
+        private final String query;
+        private final Set<String> selectedFieldNames;
+    }
+
 
     @RequiredArgsConstructor
     private static class RequestBuilder {
@@ -74,29 +177,20 @@ class EntitiesRequest {
         private final Fragment fragment = new Fragment();
         private final Variables variables = new Variables();
 
-        RequestBuilder withRepresentations(String idFieldName, String value) {
-            addVariable("representations", "[_Any!]!", Map.of(
-                "__typename", objectType.getName(),
-                idFieldName, value));
+        RequestBuilder withRepresentations() {
+            addVariable(REPRESENTATIONS, "[_Any!]!");
             return this;
         }
 
-        void addVariable(String variableName, String variableType, Object variableValue) {
-            variables.add(variableName, variableType, variableValue);
+        void addVariable(String variableName, String variableType) {
+            variables.add(variableName, variableType);
         }
 
-        RequestBuilder withFields(List<SelectedField> selectedFields) {
-            fragment.with(selectedFields);
+        RequestBuilder withFields(List<SelectedField> selectedFields, FieldSet fieldSet) {
+            fragment.with(selectedFields, fieldSet);
             return this;
         }
 
-        GraphQLRequest build() {
-            return GraphQLRequest.builder()
-                .query(query())
-                .variables(variables.valueMap())
-                .build();
-        }
-
         private String query() {
             return "query(" + variables.declaration() + ") " +
                    "{_entities(representations:$representations){...on " + objectType.getName() + fragment + "}}";
@@ -104,29 +198,21 @@ class EntitiesRequest {
 
 
         private static class Variables {
-            private final Map<String, Variable> variables = new LinkedHashMap<>();
+            private final Map<String, String> variables = new LinkedHashMap<>();
 
-            void add(String variableName, String variableType, Object variableValue) {
+            void add(String variableName, String variableType) {
                 if (variables.containsKey(variableName)) {
                     log.debug("duplicate variable name: {}:{}", variableName, variableType);
                 } else {
-                    variables.put(variableName, new Variable(variableType, variableValue));
+                    variables.put(variableName, variableType);
                 }
             }
 
             String declaration() {
                 return variables.entrySet().stream()
-                    .map(entry -> "$" + entry.getKey() + ":" + entry.getValue().type)
+                    .map(entry -> "$" + entry.getKey() + ":" + entry.getValue())
                     .collect(Collectors.joining(" "));
             }
-
-            JsonObject valueMap() {
-                var out = Json.createObjectBuilder();
-                variables.forEach((name, variable) -> out.add(name, toJson(variable.value)));
-                return out.build();
-            }
-
-            private record Variable(String type, Object value) {}
         }
 
         private class Fragment {
@@ -135,10 +221,15 @@ class EntitiesRequest {
             @Override public String toString() {return fragment.toString();}
 
             private Fragment with(List<SelectedField> selectedFields) {
+                return with(selectedFields, null);
+            }
+
+            private Fragment with(List<SelectedField> selectedFields, FieldSet fieldSet) {
                 fragment.append("{");
-                if (!fieldNames(selectedFields).contains("__typename"))
+                if (!fieldNames(selectedFields).contains("__typename") && (fieldSet == null || !fieldSet.contains("__typename")))
                     fragment.append("__typename ");
                 selectedFields.forEach(this::addField);
+                if (fieldSet != null) fragment.append(fieldSet.fieldSelections());
                 fragment.append("}");
                 return this;
             }
@@ -163,16 +254,16 @@ class EntitiesRequest {
                     for (var name : selectedField.getArguments().keySet()) {
                         var argument = fieldDefinition.getArgument(name);
                         // TODO the value can be from the variables or a literal
-                        add(argument.toAppliedArgument(), selectedField.getArguments().get(name));
+                        add(argument.toAppliedArgument());
                     }
                     fragment.append(")");
                 }
             }
 
-            private void add(GraphQLAppliedDirectiveArgument argument, Object value) {
+            private void add(GraphQLAppliedDirectiveArgument argument) {
                 var name = argument.getName();
                 var variableType = ((GraphQLNamedType) argument.getType()).getName();
-                RequestBuilder.this.addVariable(name, variableType, value);
+                RequestBuilder.this.addVariable(name, variableType);
                 fragment.append(name).append(":$").append(name);
             }
         }
@@ -0,0 +1,166 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLError;
+import com.github.graphql.feder.GraphQLAPI.GraphQLResponse;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+import jakarta.json.stream.JsonParserFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static jakarta.json.stream.JsonParser.Event.END_ARRAY;
+import static jakarta.json.stream.JsonParser.Event.END_OBJECT;
+import static jakarta.json.stream.JsonParser.Event.START_ARRAY;
+import static jakarta.json.stream.JsonParser.Event.START_OBJECT;
+import static jakarta.json.stream.JsonParser.Event.VALUE_NULL;
+
+/**
+ * The response to an <code>_entities</code> query, decoded in one pass with a streaming {@link JsonParser}.
+ * The entities contain only the selected fields, already in the {@link Map}/{@link List} shape GraphQL-Java expects,
+ * so there is no intermediate {@link JsonObject} tree to copy.
+ */
+class EntitiesResponse {
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+    /** Decode a complete GraphQL response body */
+    static EntitiesResponse read(InputStream body, Set<String> selectedFieldNames) {
+        var counting = new CountingInputStream(body);
+        try (var parser = PARSER_FACTORY.createParser(counting)) {
+            var out = new EntitiesResponse(selectedFieldNames);
+            out.readResponse(parser);
+            out.bytes = counting.count;
+            return out;
+        }
+    }
+
+    /** Decode a response that has already been deserialized, e.g. by a blocking client */
+    static EntitiesResponse of(GraphQLResponse response, Set<String> selectedFieldNames) {
+        var out = new EntitiesResponse(selectedFieldNames);
+        if (response != null) {
+            out.errors = response.getErrors();
+            if (response.getData() != null) try (var parser = PARSER_FACTORY.createParser(response.getData())) {
+                out.readData(parser, parser.next());
+            }
+        }
+        return out;
+    }
+
+    private final Set<String> selectedFieldNames;
+    private List<GraphQLError> errors;
+    private boolean hasData;
+    private List<Map<String, Object>> entities;
+    private long bytes = -1;
+
+    private EntitiesResponse(Set<String> selectedFieldNames) {this.selectedFieldNames = selectedFieldNames;}
+
+    boolean hasErrors() {return errors != null && !errors.isEmpty();}
+
+    List<GraphQLError> errors() {return errors;}
+
+    boolean hasData() {return hasData;}
+
+    /** The size of the response body, or <code>-1</code> if it has been deserialized by the client */
+    long bytes() {return bytes;}
+
+    /** @return the entities, some may be <code>null</code>; or <code>null</code> if there is no <code>_entities</code> field */
+    List<Map<String, Object>> entities() {return entities;}
+
+    private void readResponse(JsonParser parser) {
+        expect(START_OBJECT, parser.next());
+        while (parser.next() != END_OBJECT) {
+            var key = parser.getString();
+            var event = parser.next();
+            switch (key) {
+                case "data" -> readData(parser, event);
+                case "errors" -> readErrors(parser, event);
+                default -> skip(parser, event);
+            }
+        }
+    }
+
+    private void readData(JsonParser parser, Event event) {
+        if (event == VALUE_NULL) return;
+        expect(START_OBJECT, event);
+        this.hasData = true;
+        while (parser.next() != END_OBJECT) {
+            var key = parser.getString();
+            var valueEvent = parser.next();
+            if (key.equals("_entities")) readEntities(parser, valueEvent);
+            else skip(parser, valueEvent);
+        }
+    }
+
+    private void readEntities(JsonParser parser, Event event) {
+        if (event == VALUE_NULL) return;
+        expect(START_ARRAY, event);
+        this.entities = new ArrayList<>();
+        Event entityEvent;
+        while ((entityEvent = parser.next()) != END_ARRAY) {
+            entities.add((entityEvent == VALUE_NULL) ? null : readEntity(parser, entityEvent));
+        }
+    }
+
+    private Map<String, Object> readEntity(JsonParser parser, Event event) {
+        expect(START_OBJECT, event);
+        var entity = new LinkedHashMap<String, Object>();
+        while (parser.next() != END_OBJECT) {
+            var fieldName = parser.getString();
+            var valueEvent = parser.next();
+            if (selectedFieldNames.contains(fieldName)) entity.put(fieldName, JsonMapper.read(parser, valueEvent));
+            else skip(parser, valueEvent);
+        }
+        return entity;
+    }
+
+    private void readErrors(JsonParser parser, Event event) {
+        if (event == VALUE_NULL) return;
+        expect(START_ARRAY, event);
+        this.errors = parser.getArray().stream()
+            .<GraphQLError>map(error -> {
+                var object = error.asJsonObject();
+                return GraphQLError.builder()
+                    .message(object.getString("message", null))
+                    .path((object.get("path") instanceof JsonArray path) ? JsonMapper.map(path) : null)
+                    .extensions(object.containsKey("extensions") ? JsonMapper.map(object.getJsonObject("extensions")) : null)
+                    .build();
+            })
+            .toList();
+    }
+
+    private static void skip(JsonParser parser, Event event) {
+        if (event == START_OBJECT) parser.skipObject();
+        else if (event == START_ARRAY) parser.skipArray();
+    }
+
+    private static void expect(Event expected, Event actual) {
+        if (actual != expected) throw new FederationException("expected " + expected + " but got " + actual + " in _entities response");
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {super(in);}
+
+        @Override public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            var n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
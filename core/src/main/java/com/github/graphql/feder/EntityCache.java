@@ -0,0 +1,114 @@
+package com.github.graphql.feder;
+
+import graphql.schema.GraphQLAppliedDirective;
+import graphql.schema.GraphQLDirectiveContainer;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.SelectedField;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the fields of the entities of one service by typename, key value, and field selection
+ * (including the argument values), so a partial hit only has to fetch the missing fields.
+ * <p>
+ * The time-to-live of a field is the <code>maxAge</code> (in seconds) of a <code>@cacheControl</code> directive
+ * on the field or else on its type, or else the configured default. Fields with <code>scope: PRIVATE</code>
+ * or a time-to-live of zero are never cached. When full, the least recently used fields are evicted.
+ */
+class EntityCache {
+    static final String CACHE_CONTROL = "cacheControl";
+
+    private final GraphQLSchema schema;
+    private final long defaultMaxAgeMillis;
+    private final LruCache<Key, Entry> cache;
+    private final Map<String, Long> maxAgeMillis = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    EntityCache(GraphQLSchema schema, int maxSize, Duration defaultMaxAge) {
+        this.schema = schema;
+        this.defaultMaxAgeMillis = defaultMaxAge.toMillis();
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    /** The cached values and the fields that still have to be fetched */
+    record Lookup(Map<String, Object> values, List<SelectedField> missing) {}
+
+    Lookup lookup(String typeName, Object id, List<SelectedField> selectedFields) {
+        var now = System.currentTimeMillis();
+        var values = new LinkedHashMap<String, Object>();
+        var missing = new ArrayList<SelectedField>();
+        for (var selectedField : selectedFields) {
+            var key = new Key(typeName, id, EntitiesRequest.fieldKey(selectedField));
+            var entry = cache.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                values.put(selectedField.getName(), entry.value);
+                hits.increment();
+            } else {
+                if (entry != null) {
+                    cache.remove(key);
+                    expirations.increment();
+                }
+                missing.add(selectedField);
+                misses.increment();
+            }
+        }
+        return new Lookup(values, missing);
+    }
+
+    void put(String typeName, Object id, List<SelectedField> selectedFields, Map<String, Object> entity) {
+        var now = System.currentTimeMillis();
+        for (var selectedField : selectedFields) {
+            var name = selectedField.getName();
+            var maxAge = maxAgeMillis(typeName, name);
+            if (maxAge <= 0 || !entity.containsKey(name)) continue;
+            cache.put(new Key(typeName, id, EntitiesRequest.fieldKey(selectedField)), new Entry(entity.get(name), now + maxAge));
+        }
+    }
+
+    private long maxAgeMillis(String typeName, String fieldName) {
+        return maxAgeMillis.computeIfAbsent(typeName + "." + fieldName, key -> {
+            var objectType = schema.getObjectType(typeName);
+            var directive = cacheControl(objectType.getFieldDefinition(fieldName));
+            if (directive == null) directive = cacheControl(objectType);
+            if (directive == null) return defaultMaxAgeMillis;
+            var scope = directive.getArgument("scope");
+            if (scope != null && "PRIVATE".equals(String.valueOf((Object) scope.getValue()))) return 0L;
+            var maxAge = directive.getArgument("maxAge");
+            if (maxAge == null || maxAge.getValue() == null) return defaultMaxAgeMillis;
+            return ((Number) maxAge.getValue()).longValue() * 1000;
+        });
+    }
+
+    private static GraphQLAppliedDirective cacheControl(GraphQLDirectiveContainer container) {
+        return (container == null) ? null : container.getAppliedDirective(CACHE_CONTROL);
+    }
+
+    void clear() {cache.clear();}
+
+    int size() {return cache.size();}
+
+    long hits() {return hits.sum();}
+
+    long misses() {return misses.sum();}
+
+    long evictions() {return cache.evictions();}
+
+    long expirations() {return expirations.sum();}
+
+    @Override public String toString() {
+        return "EntityCache(size=" + size() + ", hits=" + hits() + ", misses=" + misses()
+               + ", evictions=" + evictions() + ", expirations=" + expirations() + ")";
+    }
+
+    private record Key(String typeName, Object id, String field) {}
+
+    private record Entry(Object value, long expiresAt) {}
+}
@@ -0,0 +1,71 @@
+package com.github.graphql.feder;
+
+import graphql.GraphQLContext;
+import graphql.schema.SelectedField;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The entity fields resolved (or still being fetched) in one execution, by service, typename, key value,
+ * and field selection (including the argument values). It lives in the {@link GraphQLContext} of the execution.
+ * <p>
+ * When an operation reaches the same entity again, the fields it already has are served from here,
+ * overlapping selections share the outstanding fetch, and only the other fields have to be fetched.
+ */
+class EntityMemo {
+    static EntityMemo of(GraphQLContext context) {
+        return context.computeIfAbsent(EntityMemo.class, key -> new EntityMemo());
+    }
+
+    private final Map<Key, CompletableFuture<Object>> fields = new ConcurrentHashMap<>();
+
+    /** Take the fields that are not yet known, i.e. the caller has to fetch and then {@link Claim#complete complete} them */
+    Claim claim(String serviceName, String typeName, Object id, List<SelectedField> selectedFields) {
+        var claim = new Claim();
+        for (var selectedField : selectedFields) {
+            var future = new CompletableFuture<>();
+            var existing = fields.putIfAbsent(new Key(serviceName, typeName, id, EntitiesRequest.fieldKey(selectedField)), future);
+            if (existing == null) {
+                claim.claimed.put(selectedField.getName(), future);
+                claim.claimedFields.add(selectedField);
+            } else {
+                claim.values.put(selectedField.getName(), existing);
+            }
+        }
+        return claim;
+    }
+
+    static class Claim {
+        private final Map<String, CompletableFuture<Object>> values = new LinkedHashMap<>();
+        private final Map<String, CompletableFuture<Object>> claimed = new LinkedHashMap<>();
+        private final List<SelectedField> claimedFields = new ArrayList<>();
+
+        /** The fields that nobody fetched before */
+        List<SelectedField> fields() {return claimedFields;}
+
+        void complete(Map<String, Object> entity, Throwable error) {
+            claimed.forEach((name, future) -> {
+                if (error != null) future.completeExceptionally(error);
+                else future.complete(entity.get(name));
+            });
+        }
+
+        /** All selected fields, as soon as they are available */
+        CompletableFuture<Map<String, Object>> result() {
+            var all = new LinkedHashMap<>(values);
+            all.putAll(claimed);
+            return CompletableFuture.allOf(all.values().toArray(CompletableFuture[]::new)).thenApply(done -> {
+                var entity = new LinkedHashMap<String, Object>();
+                all.forEach((name, future) -> entity.put(name, future.join()));
+                return entity;
+            });
+        }
+    }
+
+    private record Key(String serviceName, String typeName, Object id, String field) {}
+}
@@ -1,71 +1,402 @@
 package com.github.graphql.feder;
 
+import com.github.graphql.feder.GraphQLAPI.GraphQLError;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingFieldSelectionSet;
+import graphql.schema.GraphQLDirectiveContainer;
 import graphql.schema.GraphQLObjectType;
 import graphql.schema.GraphQLSchema;
+import graphql.schema.SelectedField;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.Try;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
-import static com.github.graphql.feder.JsonMapper.map;
+import static graphql.Scalars.GraphQLID;
+import static graphql.schema.GraphQLTypeUtil.unwrapAll;
+import static org.dataloader.DataLoaderFactory.newDataLoaderWithTry;
 
 /**
  * Holds a {@link GraphQLSchema} and fetches data from the Federation <code>_entities</code> query.
+ * All entities of one type that are loaded on one execution level are batched by a {@link DataLoader}:
+ * their selections are merged into a single request, unless the same field or variable has different arguments.
+ * It's sent by the {@link SubgraphClient} without blocking the calling thread, so the fetches for different services run concurrently.
+ * Fields that were already requested in the same execution are taken from the {@link EntityMemo}, and
+ * if the {@link EntityCache} is enabled, only the fields that are not cached are fetched.
+ * <p>
+ * The representations contain the fields of the first <code>@key</code> of the type that the root field has arguments for;
+ * a type without a <code>@key</code> has its <code>ID</code> field as key. Fields the service marks as <code>@external</code>
+ * are not fetched from it, unless its root field <code>@provides</code> them. Which service fetches what
+ * and the fields that a service <code>@requires</code> are planned by the {@link FetchPlan}.
  */
 @Slf4j
 @RequiredArgsConstructor
 class FederatedGraphQLService implements DataFetcher<Object> {
-    private final String name; // TODO add a `@boundedContext` directive to all fields from this service
+    private static final int TEMPLATE_CACHE_SIZE = 1000;
+
+    @Getter private final String name; // TODO add a `@boundedContext` directive to all fields from this service
     @Getter private final GraphQLSchema schema;
     private final URI uri;
-    private final GraphQLAPI graphQLAPI;
-    private final String idFieldName;
+    private final SubgraphClient client;
+    /** The key field sets by type name */
+    private final Map<String, List<FieldSet>> keys;
+    /** Optional, i.e. <code>null</code> if the entity cache is disabled for this service */
+    @Getter private final EntityCache entityCache;
+    private final LruCache<String, EntitiesRequest.Template> templates = new LruCache<>(TEMPLATE_CACHE_SIZE);
+    private SubgraphMetrics metrics = SubgraphMetrics.NONE;
 
     FederatedGraphQLService(FederatedSchemaBuilder federatedSchemaBuilder) {
+        this(federatedSchemaBuilder, federatedSchemaBuilder.fetchSchema());
+    }
+
+    FederatedGraphQLService(FederatedSchemaBuilder federatedSchemaBuilder, String sdl) {
         // we can't use the RequiredArgsConstructor, as we need to pass `this` to the schemaBuilder
         this.name = federatedSchemaBuilder.name;
         this.uri = federatedSchemaBuilder.uri;
-        this.graphQLAPI = federatedSchemaBuilder.graphQLAPI;
-        this.schema = federatedSchemaBuilder.build(this);
-        this.idFieldName = "id"; // TODO derive from @key ... could be more than one
+        this.client = federatedSchemaBuilder.client;
+        this.metrics = federatedSchemaBuilder.metrics;
+        this.schema = federatedSchemaBuilder.build(this, sdl);
+        this.keys = keys(schema);
+        this.entityCache = (federatedSchemaBuilder.entityCacheSize > 0)
+            ? new EntityCache(schema, federatedSchemaBuilder.entityCacheSize, federatedSchemaBuilder.entityCacheMaxAge)
+            : null;
     }
 
+    /** Publish the metrics of the cache of this service, once the version with this service is the current one */
+    void activate() {metrics.entityCache(entityCache);}
+
     @Override
     public Object get(DataFetchingEnvironment env) {
-        var typeName = ((GraphQLObjectType) env.getFieldType()).getName();
-        var entitiesRequest = new EntitiesRequest(schema, typeName, idFieldName, env.getArgument(idFieldName), env.getSelectionSet());
+        return fetch(env, fetchedFields(env), Map.of());
+    }
+
+    /**
+     * The selected fields of the entity of the root field that this service can fetch: all fields of the type,
+     * but the <code>@external</code> ones only if they are keys or the root field <code>@provides</code> them.
+     */
+    List<SelectedField> fetchedFields(DataFetchingEnvironment env) {
+        return fetchedFields(env.getField().getName(), ((GraphQLObjectType) env.getFieldType()).getName(), env.getSelectionSet());
+    }
+
+    List<SelectedField> fetchedFields(String rootFieldName, String typeName, DataFetchingFieldSelectionSet selectionSet) {
+        var objectType = schema.getObjectType(typeName);
+        var provides = provides(rootFieldName);
+        return EntitiesRequest.selectedFields(objectType, selectionSet).stream()
+            .filter(field -> !isExternal(objectType.getName(), field.getName())
+                             || isKeyField(objectType.getName(), field.getName())
+                             || (provides != null && provides.contains(field.getName())))
+            .toList();
+    }
 
-        if (entitiesRequest.getRequest() == null) {
-            return new LinkedHashMap<>();
+    /**
+     * Fetch these fields of the entity of the root field.
+     * @param required the values of the fields this service <code>@requires</code>, to pass in the representation
+     */
+    CompletableFuture<Map<String, Object>> fetch(DataFetchingEnvironment env, List<SelectedField> selectedFields, Map<String, Object> required) {
+        var objectType = objectType(env);
+        var key = key(env, objectType.getName());
+
+        var claim = EntityMemo.of(env.getGraphQlContext()).claim(name, objectType.getName(), key, selectedFields);
+        if (!claim.fields().isEmpty()) {
+            try {
+                resolve(env, objectType, key, claim.fields(), required).whenComplete(claim::complete);
+            } catch (RuntimeException e) {
+                claim.complete(null, e); // don't leave other paths waiting for these fields
+            }
         }
+        return claim.result();
+    }
+
+    /** Fetch the fields another service <code>@requires</code>, without the {@link EntityMemo} and the {@link EntityCache} */
+    CompletableFuture<Map<String, Object>> fetchRequired(DataFetchingEnvironment env, FieldSet fieldSet) {
+        var objectType = objectType(env);
+        var representation = EntitiesRequest.representation(objectType.getName(), key(env, objectType.getName()));
+        return loader(env, objectType).load(new Load(List.of(), fieldSet, representation))
+            .thenApply(entity -> (entity == null) ? new LinkedHashMap<>() : entity);
+    }
+
+    private GraphQLObjectType objectType(DataFetchingEnvironment env) {
+        return schema.getObjectType(((GraphQLObjectType) env.getFieldType()).getName());
+    }
+
+    /** The values of the first key that the root field has arguments for, or else of the first key */
+    private Map<String, Object> key(DataFetchingEnvironment env, String typeName) {
+        var keys = keys(typeName);
+        var key = keys.stream()
+            .filter(fieldSet -> fieldSet.names().stream().allMatch(env::containsArgument))
+            .findFirst().orElse(keys.get(0));
+        var values = new LinkedHashMap<String, Object>();
+        key.names().forEach(fieldName -> values.put(fieldName, env.getArgument(fieldName)));
+        return values;
+    }
 
-        log.info("send request to {} at {}: {}", name, uri, entitiesRequest.getRequest());
-        var response = graphQLAPI.request(entitiesRequest.getRequest());
-        log.info("got response from {} at {}: {}", name, uri, response);
+    List<FieldSet> keys(String typeName) {return keys.getOrDefault(typeName, DEFAULT_KEYS);}
 
-        if (response == null) throw new FederationServiceException("selecting " + entitiesRequest.selectedFieldNames() + " => null response");
-        if (response.hasErrors()) throw new FederationServiceException(response.getErrors());
-        if (response.getData() == null) throw new FederationServiceException("no data");
-        var entitiesResponse = response.getData().getJsonArray("_entities");
-        if (entitiesResponse == null) throw new FederationServiceException("no _entities");
-        if (entitiesResponse.isEmpty()) throw new FederationServiceException("empty _entities");
-        if (entitiesResponse.size() > 1) throw new FederationServiceException("multiple _entities");
-        var entity = entitiesResponse.get(0).asJsonObject();
+    boolean isKeyField(String typeName, String fieldName) {
+        return keys(typeName).stream().anyMatch(key -> key.contains(fieldName));
+    }
+
+    /** Does the type have this field, and not as <code>@external</code>, i.e. can this service fetch it without a <code>@provides</code>? */
+    boolean resolves(String typeName, String fieldName) {
+        var objectType = schema.getObjectType(typeName);
+        return objectType != null && objectType.getFieldDefinition(fieldName) != null && !isExternal(typeName, fieldName);
+    }
 
-        // GraphQL-Java doesn't like JsonObjects: it wraps strings in quotes
-        //| var out = Json.createObjectBuilder(entity);
-        //| if (!selectedFields.contains("__typename")) out.remove("__typename");
-        //| return out.build();
-        var out = new LinkedHashMap<>();
-        entitiesRequest.selectedFieldNames().forEach(fieldName -> out.put(fieldName, map(entity.getValue("/" + fieldName))));
-        return out;
+    private boolean isExternal(String typeName, String fieldName) {
+        var field = schema.getObjectType(typeName).getFieldDefinition(fieldName);
+        return field != null && field.hasAppliedDirective("external");
+    }
+
+    /** The fields of the entity that this service resolves in the response of the root field, though they are <code>@external</code> */
+    FieldSet provides(String rootFieldName) {return fieldSet(schema.getQueryType().getFieldDefinition(rootFieldName), "provides");}
+
+    /** The fields of the entity that this service needs in the representation to resolve the field */
+    FieldSet requires(String typeName, String fieldName) {
+        var objectType = schema.getObjectType(typeName);
+        return (objectType == null) ? null : fieldSet(objectType.getFieldDefinition(fieldName), "requires");
+    }
+
+    private static FieldSet fieldSet(GraphQLDirectiveContainer container, String directiveName) {
+        if (container == null) return null;
+        var directive = container.getAppliedDirective(directiveName);
+        return (directive == null) ? null : directive.getArgument("fields").getValue();
+    }
+
+    private static final List<FieldSet> DEFAULT_KEYS = List.of(FieldSet.parse("id"));
+
+    /** The <code>@key</code>s of all types; a type without one has its <code>ID</code> field as key */
+    private static Map<String, List<FieldSet>> keys(GraphQLSchema schema) {
+        var keys = new LinkedHashMap<String, List<FieldSet>>();
+        schema.getAllTypesAsList().stream()
+            .filter(type -> type instanceof GraphQLObjectType && !type.getName().startsWith("__"))
+            .map(GraphQLObjectType.class::cast)
+            .forEach(type -> {
+                var fieldSets = type.getAppliedDirectives("key").stream()
+                    .<FieldSet>map(directive -> directive.getArgument("fields").getValue())
+                    .toList();
+                if (fieldSets.isEmpty()) fieldSets = type.getFieldDefinitions().stream()
+                    .filter(field -> unwrapAll(field.getType()) == GraphQLID)
+                    .limit(1)
+                    .map(field -> FieldSet.parse(field.getName()))
+                    .toList();
+                if (!fieldSets.isEmpty()) keys.put(type.getName(), fieldSets);
+            });
+        return keys;
+    }
+
+    private CompletableFuture<Map<String, Object>> resolve(DataFetchingEnvironment env, GraphQLObjectType objectType,
+                                                           Map<String, Object> key, List<SelectedField> selectedFields,
+                                                           Map<String, Object> required) {
+        if (entityCache == null) {
+            return load(env, objectType, key, selectedFields, required);
+        }
+
+        var cached = entityCache.lookup(objectType.getName(), key, selectedFields);
+        if (cached.missing().isEmpty()) {
+            return CompletableFuture.completedFuture(cached.values());
+        }
+        return load(env, objectType, key, cached.missing(), required).thenApply(entity -> {
+            if (entity.isEmpty()) return entity; // not found or nothing fetched: don't cache
+            entityCache.put(objectType.getName(), key, cached.missing(), entity);
+            var merged = new LinkedHashMap<>(cached.values());
+            merged.putAll(entity);
+            return merged;
+        });
+    }
+
+    private CompletableFuture<Map<String, Object>> load(DataFetchingEnvironment env, GraphQLObjectType objectType,
+                                                        Map<String, Object> key, List<SelectedField> selectedFields,
+                                                        Map<String, Object> required) {
+        if (key.keySet().containsAll(selectedFields.stream().map(SelectedField::getName).toList())) {
+            return CompletableFuture.completedFuture(new LinkedHashMap<>(key)); // we don't need to ask for the key we already know
+        }
+
+        var values = new LinkedHashMap<>(key);
+        values.putAll(required);
+        var load = new Load(selectedFields, null, EntitiesRequest.representation(objectType.getName(), values));
+        var entity = (required.isEmpty())
+            ? loader(env, objectType).load(load)
+            // the data loader wouldn't be dispatched again for a load that starts after the required fields arrived
+            : load(objectType, List.of(load), Timing.of(env.getGraphQlContext())).get(load);
+        return entity.thenApply(value -> (value == null) ? new LinkedHashMap<>() : value);
+    }
+
+    /**
+     * One entity to fetch: the selected fields of a client operation, and/or a field set, e.g. the fields another service
+     * <code>@requires</code>. Loads are compared by identity, as the {@link EntityMemo} already shares equal fetches.
+     */
+    private record Load(List<SelectedField> fields, FieldSet fieldSet, Map<String, Object> representation) {
+        @Override public boolean equals(Object other) {return this == other;}
+
+        @Override public int hashCode() {return System.identityHashCode(this);}
+    }
+
+    private static final DataLoaderOptions NO_CACHING = DataLoaderOptions.newOptions().setCachingEnabled(false).build();
+
+    /** The data loader for all entities of this type from this service in the execution */
+    private DataLoader<Load, Map<String, Object>> loader(DataFetchingEnvironment env, GraphQLObjectType objectType) {
+        var timing = Timing.of(env.getGraphQlContext());
+        return env.getDataLoaderRegistry().computeIfAbsent(name + ":" + objectType.getName(),
+            loaderName -> newDataLoaderWithTry((List<Load> loads) -> {
+                var entities = load(objectType, loads, timing);
+                // a failing request fails only its own loads
+                var tries = loads.stream().map(load -> Try.tryFuture(entities.get(load))).toList();
+                return CompletableFuture.allOf(tries.toArray(CompletableFuture[]::new))
+                    .thenApply(done -> tries.stream().map(CompletableFuture::join).toList());
+            }, NO_CACHING));
+    }
+
+    /** Fetch the loads in as few <code>_entities</code> requests as possible */
+    private Map<Load, CompletableFuture<Map<String, Object>>> load(GraphQLObjectType objectType, List<Load> loads, Timing timing) {
+        var batches = new ArrayList<Batch>();
+        for (var load : loads) {
+            var batch = batches.stream().filter(candidate -> candidate.accepts(load)).findFirst().orElse(null);
+            if (batch == null) batches.add(batch = new Batch());
+            batch.add(load);
+        }
+        var entities = new LinkedHashMap<Load, CompletableFuture<Map<String, Object>>>();
+        for (var batch : batches) {
+            var entitiesRequest = new EntitiesRequest(templates, objectType, Set.of(), batch.fields, batch.fieldSet);
+            var fetched = fetch(entitiesRequest, batch.representations, timing).toCompletableFuture();
+            batch.loads.forEach(load -> {
+                var index = batch.representations.indexOf(load.representation());
+                entities.put(load, fetched.thenApply(fetchedEntities -> {
+                    var errors = fetchedEntities.errors().get(index);
+                    if (errors != null) throw new FederationServiceException("errors", errors); // fails only this load
+                    return fetchedEntities.list().get(index);
+                }));
+            });
+        }
+        return entities;
+    }
+
+    /** Loads that can be fetched in one request, as their fields and variables don't conflict */
+    private static class Batch {
+        private final List<Load> loads = new ArrayList<>();
+        private final List<SelectedField> fields = new ArrayList<>();
+        private final Map<String, String> fieldKeys = new HashMap<>();
+        private final Map<String, Object> arguments = new HashMap<>();
+        private FieldSet fieldSet;
+        /** Without duplicates, so loads of the same entity share one representation */
+        private final List<Map<String, Object>> representations = new ArrayList<>();
+
+        private boolean accepts(Load load) {
+            for (var field : load.fields()) {
+                var fieldKey = fieldKeys.get(field.getName());
+                if (fieldKey != null && !fieldKey.equals(EntitiesRequest.fieldKey(field))) return false;
+                if (fieldSet != null && fieldSet.contains(field.getName()) && !isLeaf(field)) return false;
+                for (var argument : EntitiesRequest.arguments(field).entrySet()) {
+                    if (arguments.containsKey(argument.getKey()) && !Objects.equals(arguments.get(argument.getKey()), argument.getValue()))
+                        return false;
+                }
+            }
+            if (load.fieldSet() != null) {
+                if (fieldSet != null && fieldSet.conflicts(load.fieldSet())) return false;
+                for (var field : fields) {
+                    if (load.fieldSet().contains(field.getName()) && !isLeaf(field)) return false;
+                }
+            }
+            return true;
+        }
+
+        /** A field without arguments or sub-selection is the same in a field set */
+        private static boolean isLeaf(SelectedField field) {
+            return field.getArguments().isEmpty() && field.getSelectionSet().getImmediateFields().isEmpty();
+        }
+
+        private void add(Load load) {
+            loads.add(load);
+            for (var field : load.fields()) {
+                if (fieldKeys.putIfAbsent(field.getName(), EntitiesRequest.fieldKey(field)) == null) fields.add(field);
+                EntitiesRequest.arguments(field).forEach(arguments::putIfAbsent);
+            }
+            if (load.fieldSet() != null) fieldSet = (fieldSet == null) ? load.fieldSet() : fieldSet.plus(load.fieldSet());
+            if (!representations.contains(load.representation())) representations.add(load.representation());
+        }
+    }
+
+    /**
+     * Fetch all representations of a batch in one <code>_entities</code> request.
+     * @param timing optional, i.e. <code>null</code> if the client didn't request it
+     */
+    private CompletionStage<Entities> fetch(EntitiesRequest entitiesRequest, List<Map<String, Object>> representations, Timing timing) {
+        var request = entitiesRequest.request(representations);
+        log.debug("request {} entities from {} at {}", representations.size(), name, uri);
+        var start = System.nanoTime();
+        return client.request(request, entitiesRequest.selectedFieldNames())
+            .thenApply(response -> {
+                var entities = entities(entitiesRequest, representations, response);
+                metrics.success(System.nanoTime() - start, entities.list().size(), response.bytes());
+                return entities;
+            })
+            .whenComplete((entities, throwable) -> {
+                if (throwable != null) metrics.failure(System.nanoTime() - start, kind(throwable));
+                if (timing != null) timing.record("service", name + ":" + entitiesRequest.selectedFieldNames(), start);
+            });
+    }
+
+    private static String kind(Throwable throwable) {
+        var cause = (throwable instanceof CompletionException && throwable.getCause() != null) ? throwable.getCause() : throwable;
+        if (cause instanceof ConcurrencyLimit.LimitExceededException) return "rejected";
+        if (cause instanceof CircuitBreaker.OpenException) return "circuit-open";
+        return (cause instanceof FederationServiceException exception) ? exception.kind : "transport";
+    }
+
+    /**
+     * The entities of one response, some may be <code>null</code>,
+     * and the errors of single entities by their index, i.e. the errors with a path <code>_entities.&lt;index&gt;</code>.
+     */
+    private record Entities(List<Map<String, Object>> list, Map<Integer, List<GraphQLError>> errors) {}
+
+    /** Errors of single entities fail only their loads; other errors fail the whole batch */
+    private Entities entities(EntitiesRequest entitiesRequest, List<Map<String, Object>> representations, EntitiesResponse response) {
+        var entityErrors = new HashMap<Integer, List<GraphQLError>>();
+        if (response.hasErrors()) {
+            for (var error : response.errors()) {
+                var index = entityIndex(error, representations.size());
+                if (index < 0) throw new FederationServiceException("errors", response.errors());
+                entityErrors.computeIfAbsent(index, i -> new ArrayList<>()).add(error);
+            }
+        }
+        if (!response.hasData()) throw new FederationServiceException("no-data", "selecting " + entitiesRequest.selectedFieldNames() + " => no data");
+        var entities = response.entities();
+        if (entities == null) throw new FederationServiceException("no-entities", "no _entities");
+        if (entities.isEmpty()) throw new FederationServiceException("empty-entities", "empty _entities");
+        if (entities.size() != representations.size())
+            throw new FederationServiceException("entity-count", "expected " + representations.size() + " _entities but got " + entities.size());
+        return new Entities(entities, entityErrors);
+    }
+
+    /** @return the index of the entity the error is about, or <code>-1</code> if it's not about a single entity */
+    private static int entityIndex(GraphQLError error, int size) {
+        var path = error.getPath();
+        if (path == null || path.size() < 2 || !"_entities".equals(path.get(0)) || !(path.get(1) instanceof Number number)) return -1;
+        var index = number.intValue();
+        return (index >= 0 && index < size) ? index : -1;
     }
 
     private class FederationServiceException extends FederationException {
-        private FederationServiceException(Object message) {super("[from service " + name + " at " + uri + "]: " + message);}
+        /** For the metrics */
+        private final String kind;
+
+        private FederationServiceException(String kind, Object message) {
+            super("[from service " + name + " at " + uri + "]: " + message);
+            this.kind = kind;
+        }
     }
 }
@@ -17,15 +17,22 @@ import graphql.schema.idl.SchemaGenerator;
 import graphql.schema.idl.SchemaParser;
 import graphql.schema.idl.TypeDefinitionRegistry;
 import graphql.schema.idl.TypeRuntimeWiring;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.rest.client.RestClientBuilder;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 import static graphql.Scalars.GraphQLInt;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toSet;
 
 /**
@@ -34,26 +41,78 @@ import static java.util.stream.Collectors.toSet;
  */
 @Slf4j
 class FederatedSchemaBuilder {
-    static FederatedSchemaBuilder of(Map.Entry<String, URI> entry) {
-        return new FederatedSchemaBuilder(entry.getKey(), entry.getValue());
+    static FederatedSchemaBuilder of(ServiceConfig config, FetchMode fetchMode, ExecutorService executor) {
+        var uris = config.uris();
+        var graphQLAPI = (uris.size() == 1) ? restClient(config, uris.get(0), executor)
+            : new LoadBalancer(config.name, config.balancer(), config.ejection(), config.hedging(), uris, uri -> restClient(config, uri, executor));
+        if (config.maxConcurrency() > 0 && executor == null)
+            throw new FederationException("service " + config.name + ": the max-concurrency needs a fetch mode with threads, not " + fetchMode);
+        var concurrencyLimit = new ConcurrencyLimit(config.maxConcurrency(), config.maxQueue(), config.queueTimeout());
+        return new FederatedSchemaBuilder(config.name, config.uri(), graphQLAPI,
+            new SubgraphClient(graphQLAPI, fetchMode, executor, concurrencyLimit, config.circuitBreaker()))
+            .entityCache(config.cacheSize(), config.cacheTtl());
+    }
+
+    private static AsyncGraphQLAPI restClient(ServiceConfig config, URI uri, ExecutorService executor) {
+        var restClient = RestClientBuilder.newBuilder().baseUri(uri)
+            .connectTimeout(config.connectTimeout().toMillis(), MILLISECONDS)
+            .readTimeout(config.readTimeout().toMillis(), MILLISECONDS);
+        if (executor != null) restClient.executorService(executor);
+        if (config.poolSize() > 0) {
+            // the MicroProfile Rest Client has no standard property for the pool; RESTEasy maps these to its client builder
+            restClient.property("resteasy.connectionPoolSize", config.poolSize());
+            restClient.property("resteasy.maxPooledPerRoute", config.poolSize());
+        }
+        if (!config.keepAlive()) restClient.register(ConnectionClose.class);
+        return restClient.build(AsyncGraphQLAPI.class);
+    }
+
+    /** Don't keep connections alive, e.g. to spread the requests over the instances behind a load balancer */
+    public static class ConnectionClose implements ClientRequestFilter {
+        @Override public void filter(ClientRequestContext requestContext) {
+            requestContext.getHeaders().putSingle("Connection", "close");
+        }
     }
 
     final String name;
+    /** The first instance, if there are several */
     final URI uri;
     final GraphQLAPI graphQLAPI;
+    final SubgraphClient client;
+    int entityCacheSize;
+    Duration entityCacheMaxAge = Duration.ZERO;
+    SubgraphMetrics metrics = SubgraphMetrics.NONE;
 
-    FederatedSchemaBuilder(String name, URI uri) {
-        this(name, uri, RestClientBuilder.newBuilder().baseUri(uri).build(GraphQLAPI.class));
+    FederatedSchemaBuilder(String name, URI uri, GraphQLAPI graphQLAPI) {
+        this(name, uri, graphQLAPI, new SubgraphClient(graphQLAPI, FetchMode.ASYNC, ForkJoinPool.commonPool(), new ConcurrencyLimit(0)));
     }
 
-    FederatedSchemaBuilder(String name, URI uri, GraphQLAPI graphQLAPI) {
+    FederatedSchemaBuilder(String name, URI uri, GraphQLAPI graphQLAPI, SubgraphClient client) {
         this.name = name;
         this.uri = uri;
         this.graphQLAPI = graphQLAPI;
+        this.client = client;
     }
 
-    GraphQLSchema build(DataFetcher<?> representationFetcher) {
-        TypeDefinitionRegistry typeDefinitionRegistry = buildTypeDefinitions();
+    /**
+     * Enable the {@link EntityCache} with a maximum number of cached fields,
+     * and the time-to-live for fields without a <code>@cacheControl(maxAge:)</code>.
+     */
+    FederatedSchemaBuilder entityCache(int maxSize, Duration defaultMaxAge) {
+        this.entityCacheSize = maxSize;
+        this.entityCacheMaxAge = defaultMaxAge;
+        return this;
+    }
+
+    /** Record the metrics of this service, after configuring the {@link #entityCache}; a <code>null</code> registry records nothing */
+    FederatedSchemaBuilder metrics(MetricRegistry registry) {
+        this.metrics = SubgraphMetrics.of(registry, name, entityCacheSize > 0);
+        if (graphQLAPI instanceof LoadBalancer loadBalancer) loadBalancer.metrics(registry);
+        return this;
+    }
+
+    GraphQLSchema build(DataFetcher<?> representationFetcher, String sdl) {
+        TypeDefinitionRegistry typeDefinitionRegistry = buildTypeDefinitions(sdl);
 
         var runtimeWiring = RuntimeWiring.newRuntimeWiring();
         // TODO why do we need these and what other types are missing?
@@ -70,8 +129,10 @@ class FederatedSchemaBuilder {
         return new SchemaGenerator().makeExecutableSchema(typeDefinitionRegistry, runtimeWiring.build());
     }
 
-    private TypeDefinitionRegistry buildTypeDefinitions() {
-        TypeDefinitionRegistry typeDefinitionRegistry = new SchemaParser().parse(FEDERATION_SCHEMA + fetchSchema());
+    private TypeDefinitionRegistry buildTypeDefinitions(String sdl) {
+        // the subgraph may declare the cache control hints itself
+        var declarations = sdl.contains("directive @" + EntityCache.CACHE_CONTROL) ? FEDERATION_SCHEMA : FEDERATION_SCHEMA + CACHE_CONTROL_SCHEMA;
+        TypeDefinitionRegistry typeDefinitionRegistry = new SchemaParser().parse(declarations + sdl);
         var entities = typeDefinitionRegistry.types().values().stream()
             .filter(this::isEntity)
             .map(NamedNode::getName)
@@ -83,7 +144,7 @@ class FederatedSchemaBuilder {
         return typeDefinitionRegistry;
     }
 
-    private String fetchSchema() {
+    String fetchSchema() {
         try {
             GraphQLRequest request = GraphQLRequest.builder().query("{_service{sdl}}").build();
             var t0 = System.currentTimeMillis();
@@ -154,6 +215,13 @@ class FederatedSchemaBuilder {
 
         """;
 
+    /** The Apollo cache control hints, used by the {@link EntityCache} */
+    private static final String CACHE_CONTROL_SCHEMA = """
+        enum CacheControlScope { PUBLIC PRIVATE }
+        directive @cacheControl(maxAge: Int, scope: CacheControlScope, inheritMaxAge: Boolean) on FIELD_DEFINITION | OBJECT | INTERFACE | UNION
+
+        """;
+
     private class SchemaFetchingException extends FederationException {
         private SchemaFetchingException(String message) {super(message + " while fetching sdl from " + uri);}
     }
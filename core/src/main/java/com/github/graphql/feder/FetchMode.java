@@ -0,0 +1,49 @@
+package com.github.graphql.feder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How the requests to the federated services are executed; configured with <code>graphql.federated.fetch-mode</code>.
+ */
+enum FetchMode {
+    /** Use the non-blocking {@link AsyncGraphQLAPI}; blocking clients fall back to a pool of platform threads */
+    ASYNC,
+
+    /** Call the blocking client on a pool of <code>graphql.federated.fetch-threads</code> platform threads */
+    PLATFORM,
+
+    /** Call the blocking client on a new virtual thread for every request; requires Java 21+ */
+    VIRTUAL {
+        @Override ExecutorService executor(int threads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new FederationException("fetch mode VIRTUAL requires Java 21+", e);
+            }
+        }
+    },
+
+    /** Call the blocking client on the thread that dispatches the fetches; mainly useful for debugging */
+    CALLER {
+        @Override ExecutorService executor(int threads) {return null;}
+    };
+
+    static FetchMode of(String name) {return valueOf(name.trim().toUpperCase());}
+
+    /** @return the executor for the fetches, or <code>null</code> for the {@link #CALLER} mode */
+    ExecutorService executor(int threads) {
+        return Executors.newFixedThreadPool(threads, platformThreadFactory());
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, "feder-fetch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.graphql.feder;
+
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.DataFetchingFieldSelectionSet;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.SelectedField;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.failedFuture;
+
+/**
+ * Which of the services contributing to a root field fetches which of the selected fields of its entity.
+ * <p>
+ * A field that a service <code>@provides</code> is taken from that service, if it has to be called anyway;
+ * then the service that owns the field doesn't have to fetch it, and maybe doesn't have to be called at all.
+ * <p>
+ * A service that <code>@requires</code> some fields for a selected field gets them in the representation:
+ * they are fetched first from the services that own them.
+ * <p>
+ * The plan only has the names of the fields, so the {@link QueryPlan} can cache it for other executions of the same operation.
+ */
+class FetchPlan {
+    /**
+     * @param fields the names of the selected fields this service fetches
+     * @param requires the fields to fetch first, by the service that owns them
+     */
+    record Step(FederatedGraphQLService service, List<String> fields, Map<FederatedGraphQLService, FieldSet> requires) {}
+
+    static FetchPlan of(List<FederatedGraphQLService> services, DataFetchingEnvironment env) {
+        return of(services, env.getField().getName(), ((GraphQLObjectType) env.getFieldType()).getName(), env.getSelectionSet());
+    }
+
+    static FetchPlan of(List<FederatedGraphQLService> services, String rootField, String typeName, DataFetchingFieldSelectionSet selectionSet) {
+        var fields = new LinkedHashMap<FederatedGraphQLService, List<SelectedField>>();
+        services.forEach(service -> fields.put(service, new ArrayList<>(service.fetchedFields(rootField, typeName, selectionSet))));
+
+        // a provided field is served by the first provider that is called for fields of its own
+        var servedBy = new LinkedHashMap<String, FederatedGraphQLService>();
+        fields.forEach((service, selected) -> {
+            if (selected.stream().noneMatch(field -> fetchesItself(service, typeName, field))) return;
+            var provides = service.provides(rootField);
+            if (provides != null) provides.names().forEach(name -> servedBy.putIfAbsent(name, service));
+        });
+        fields.forEach((service, selected) -> selected.removeIf(field -> {
+            var provider = servedBy.get(field.getName());
+            if (provider != null) return provider != service;
+            return !service.resolves(typeName, field.getName()) && !service.isKeyField(typeName, field.getName());
+        }));
+
+        var steps = new LinkedHashMap<FederatedGraphQLService, Step>();
+        fields.forEach((service, selected) -> steps.put(service, new Step(service,
+            selected.stream().map(SelectedField::getName).distinct().toList(), requires(services, service, typeName, selected))));
+        return new FetchPlan(typeName, steps);
+    }
+
+    /** The service can fetch the field without a <code>@provides</code>, and it's not a key that we know */
+    private static boolean fetchesItself(FederatedGraphQLService service, String typeName, SelectedField field) {
+        return service.resolves(typeName, field.getName()) && !service.isKeyField(typeName, field.getName());
+    }
+
+    private static Map<FederatedGraphQLService, FieldSet> requires(List<FederatedGraphQLService> services, FederatedGraphQLService service,
+                                                                   String typeName, List<SelectedField> selected) {
+        var requires = new LinkedHashMap<FederatedGraphQLService, FieldSet>();
+        for (var field : selected) {
+            var fieldSet = service.requires(typeName, field.getName());
+            if (fieldSet == null) continue;
+            for (var name : fieldSet.names()) {
+                var owner = services.stream()
+                    .filter(other -> other != service && other.resolves(typeName, name))
+                    .findFirst()
+                    .orElseThrow(() -> new FederationException("no service resolves " + typeName + "." + name
+                                                               + " required by " + service.getName() + " for " + field.getName()));
+                requires.merge(owner, fieldSet.select(List.of(name)), FieldSet::plus);
+            }
+        }
+        return requires;
+    }
+
+    private final String typeName;
+    private final Map<FederatedGraphQLService, Step> steps;
+
+    private FetchPlan(String typeName, Map<FederatedGraphQLService, Step> steps) {
+        this.typeName = typeName;
+        this.steps = steps;
+    }
+
+    String typeName() {return typeName;}
+
+    List<Step> steps() {return List.copyOf(steps.values());}
+
+    /** Start the fetch of this service, after the fields it requires from other services arrived */
+    CompletableFuture<Map<String, Object>> execute(FederatedGraphQLService service, DataFetchingEnvironment env) {
+        var step = steps.get(service);
+        try {
+            var fields = env.getSelectionSet().getImmediateFields().stream()
+                .filter(field -> step.fields().contains(field.getName()))
+                .toList();
+            if (step.requires().isEmpty()) return service.fetch(env, fields, Map.of());
+            var required = step.requires().entrySet().stream()
+                .map(entry -> entry.getKey().fetchRequired(env, entry.getValue()).thenApply(entry.getValue()::values))
+                .toList();
+            return CompletableFuture.allOf(required.toArray(CompletableFuture[]::new)).thenCompose(done -> {
+                var values = new LinkedHashMap<String, Object>();
+                required.forEach(future -> values.putAll(future.join()));
+                return service.fetch(env, fields, values);
+            });
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.graphql.feder;
+
+import graphql.language.Field;
+import graphql.language.OperationDefinition;
+import graphql.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed <code>_FieldSet</code>, i.e. the <code>fields</code> of a <code>@key</code>, <code>@provides</code>,
+ * or <code>@requires</code> directive, e.g. <code>"id"</code>, <code>"sku region"</code>, or
+ * <code>"id dimensions { weight }"</code>.
+ */
+record FieldSet(List<Field> fields) {
+    static FieldSet parse(String fields) {
+        try {
+            var document = Parser.parse("{" + fields + "}");
+            var operation = (OperationDefinition) document.getDefinitions().get(0);
+            return new FieldSet(operation.getSelectionSet().getSelectionsOfType(Field.class));
+        } catch (RuntimeException e) {
+            throw new FederationException("invalid field set: " + fields, e);
+        }
+    }
+
+    /** The names of the top-level fields */
+    List<String> names() {return fields.stream().map(Field::getName).toList();}
+
+    boolean contains(String name) {return fields.stream().anyMatch(field -> field.getName().equals(name));}
+
+    /** Only the top-level fields with these names */
+    FieldSet select(Collection<String> names) {
+        return new FieldSet(fields.stream().filter(field -> names.contains(field.getName())).toList());
+    }
+
+    /** All but the top-level fields with these names */
+    FieldSet without(Collection<String> names) {
+        return new FieldSet(fields.stream().filter(field -> !names.contains(field.getName())).toList());
+    }
+
+    boolean isEmpty() {return fields.isEmpty();}
+
+    /** Has another field set a field with the same name but a different sub-selection? */
+    boolean conflicts(FieldSet other) {
+        return other.fields.stream().anyMatch(field -> contains(field.getName())
+            && !selection(List.of(field)).equals(selection(select(List.of(field.getName())).fields)));
+    }
+
+    FieldSet plus(FieldSet other) {
+        var merged = new ArrayList<>(fields);
+        other.fields.stream().filter(field -> !contains(field.getName())).forEach(merged::add);
+        return new FieldSet(merged);
+    }
+
+    /** The values of the top-level fields from an entity */
+    Map<String, Object> values(Map<String, Object> entity) {
+        var values = new LinkedHashMap<String, Object>();
+        names().forEach(name -> values.put(name, (entity == null) ? null : entity.get(name)));
+        return values;
+    }
+
+    /** The selection for an <code>_entities</code> query, formatted like the other selections */
+    String selection() {return selection(fields);}
+
+    /** The fields without braces, to append them to another selection */
+    String fieldSelections() {
+        var out = new StringBuilder();
+        appendFields(out, fields);
+        return out.toString();
+    }
+
+    private static String selection(List<Field> fields) {
+        var out = new StringBuilder("{");
+        if (fields.stream().noneMatch(field -> field.getName().equals("__typename"))) out.append("__typename ");
+        appendFields(out, fields);
+        return out.append('}').toString();
+    }
+
+    private static void appendFields(StringBuilder out, List<Field> fields) {
+        for (var field : fields) {
+            out.append(field.getName());
+            if (field.getSelectionSet() != null && !field.getSelectionSet().getSelections().isEmpty())
+                out.append(selection(field.getSelectionSet().getSelectionsOfType(Field.class)));
+            out.append(' ');
+        }
+    }
+
+    @Override public String toString() {return String.join(" ", names());}
+}
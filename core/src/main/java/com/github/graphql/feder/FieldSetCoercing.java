@@ -6,26 +6,37 @@ import graphql.language.Value;
 import graphql.schema.Coercing;
 import graphql.schema.CoercingParseLiteralException;
 
-class FieldSetCoercing implements Coercing<String, String> {
+import static java.util.stream.Collectors.joining;
+
+/** Parses the <code>fields</code> argument of the federation directives into a {@link FieldSet} */
+class FieldSetCoercing implements Coercing<FieldSet, String> {
     @Override
     public String serialize(Object input) {
         throw new UnsupportedOperationException();
     }
 
     @Override
-    public String parseValue(Object input) {
+    public FieldSet parseValue(Object input) {
         throw new UnsupportedOperationException();
     }
 
     @Override
-    public String parseLiteral(Object input) {
-        if (input instanceof StringValue) return "[" + ((StringValue) input).getValue() + "]"; // TODO test
+    public FieldSet parseLiteral(Object input) {
+        if (input instanceof StringValue) return parse(((StringValue) input).getValue());
         if (!(input instanceof ArrayValue)) throw new CoercingParseLiteralException("Expected AST type 'ArrayValue' but was '" + input + "'.");
         var values = ((ArrayValue) input).getValues();
         values.forEach(value -> {
             if (!(value instanceof StringValue)) throw new CoercingParseLiteralException("Expected AST array type containing 'StringValue' but was '" + value + "'.");
         });
-        return values.toString();
+        return parse(values.stream().map(value -> ((StringValue) value).getValue()).collect(joining(" ")));
+    }
+
+    private static FieldSet parse(String fields) {
+        try {
+            return FieldSet.parse(fields);
+        } catch (FederationException e) {
+            throw new CoercingParseLiteralException(e.getMessage(), e);
+        }
     }
 
     @Override
@@ -25,7 +25,10 @@ public class GatewayExceptionMapper implements ExceptionMapper<RuntimeException>
     }
 
     static GraphQLError map(graphql.GraphQLError graphQLError) {
-        return GraphQLError.builder().message(graphQLError.getMessage()).build(); // TODO map other fields
+        return GraphQLError.builder()
+            .message(graphQLError.getMessage())
+            .extensions(graphQLError.getExtensions())
+            .build(); // TODO map other fields
     }
 
     @Override public Response toResponse(RuntimeException exception) {
@@ -0,0 +1,102 @@
+package com.github.graphql.feder;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.language.Document;
+import graphql.validation.ValidationError;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Counts the executed operations and measures the time to execute, parse, and validate them.
+ * Parsing and validation are skipped for documents found in the {@link DocumentCache}.
+ * Also publishes the {@link QueryLimits}, the measures of the operations, and the operations rejected by them.
+ */
+class GatewayMetrics extends SimplePerformantInstrumentation {
+    private final MetricRegistry registry;
+    private final Counter operations;
+    private final Counter failedOperations;
+    private final Timer execution;
+    private final Timer parse;
+    private final Timer validation;
+    private final Histogram depth;
+    private final Histogram aliases;
+    private final Histogram fields;
+    private final Histogram cost;
+
+    GatewayMetrics(MetricRegistry registry, QueryLimits.Limits limits) {
+        this.registry = registry;
+        this.operations = registry.counter(metadata("feder.operations", "executed operations", MetricUnits.NONE));
+        this.failedOperations = registry.counter(metadata("feder.operations.failed", "operations with errors", MetricUnits.NONE));
+        this.execution = registry.timer(metadata("feder.operation.duration", "time to execute an operation", MetricUnits.NANOSECONDS));
+        this.parse = registry.timer(metadata("feder.operation.parse", "time to parse an operation", MetricUnits.NANOSECONDS));
+        this.validation = registry.timer(metadata("feder.operation.validation", "time to validate an operation", MetricUnits.NANOSECONDS));
+        this.depth = registry.histogram(metadata("feder.operation.depth", "nesting depth of an operation", MetricUnits.NONE));
+        this.aliases = registry.histogram(metadata("feder.operation.aliases", "aliases in an operation", MetricUnits.NONE));
+        this.fields = registry.histogram(metadata("feder.operation.fields", "fields in an operation", MetricUnits.NONE));
+        this.cost = registry.histogram(metadata("feder.operation.cost", "estimated service requests of an operation", MetricUnits.NONE));
+        limit(limits, "depth", QueryLimits.Limits::maxDepth);
+        limit(limits, "aliases", QueryLimits.Limits::maxAliases);
+        limit(limits, "fields", QueryLimits.Limits::maxFields);
+        limit(limits, "cost", QueryLimits.Limits::maxCost);
+    }
+
+    private void limit(QueryLimits.Limits limits, String name, Function<QueryLimits.Limits, Integer> value) {
+        registry.gauge(metadata("feder.operation.limit", "configured maximum; zero or less is unlimited", MetricUnits.NONE),
+            limits, value, new Tag("limit", name));
+    }
+
+    void measured(QueryLimits.Measure measure) {
+        depth.update(measure.depth());
+        aliases.update(measure.aliases());
+        fields.update(measure.fields());
+        cost.update(measure.cost());
+    }
+
+    void rejected(String limit) {
+        registry.counter(metadata("feder.operations.rejected", "operations exceeding a limit", MetricUnits.NONE), new Tag("limit", limit)).inc();
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecution(InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        var start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) -> {
+            execution.update(Duration.ofNanos(System.nanoTime() - start));
+            operations.inc();
+            if (throwable != null || (result != null && !result.getErrors().isEmpty())) failedOperations.inc();
+        });
+    }
+
+    @Override
+    public InstrumentationContext<Document> beginParse(InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        return timed(parse);
+    }
+
+    @Override
+    public InstrumentationContext<List<ValidationError>> beginValidation(InstrumentationValidationParameters parameters, InstrumentationState state) {
+        return timed(validation);
+    }
+
+    private static <T> InstrumentationContext<T> timed(Timer timer) {
+        var start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) -> timer.update(Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+    private static Metadata metadata(String name, String description, String unit) {
+        return Metadata.builder().withName(name).withDescription(description).withUnit(unit).build();
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLError;
+import com.github.graphql.feder.GraphQLAPI.GraphQLResponse;
+import graphql.ExecutionResult;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response of the gateway keeps the {@link ExecutionResult}, so the {@link GatewayResponseWriter}
+ * can stream it directly to the client. The {@link JsonObject} of the {@link GraphQLResponse}
+ * is only built when called in-process, e.g. in tests.
+ */
+class GatewayResponse extends GraphQLResponse {
+    final ExecutionResult executionResult;
+
+    GatewayResponse(ExecutionResult executionResult) {this.executionResult = executionResult;}
+
+    @Override public JsonObject getData() {
+        if (data == null && executionResult.getData() != null)
+            data = Json.createObjectBuilder(executionResult.<Map<String, Object>>getData()).build();
+        return data;
+    }
+
+    @Override public List<GraphQLError> getErrors() {
+        if (errors == null)
+            errors = GatewayExceptionMapper.map(executionResult.getErrors());
+        return errors;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override public JsonObject getExtensions() {
+        if (extensions == null && executionResult.getExtensions() != null)
+            extensions = Json.createObjectBuilder((Map) executionResult.getExtensions()).build();
+        return extensions;
+    }
+}
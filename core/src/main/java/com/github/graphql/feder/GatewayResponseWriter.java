@@ -0,0 +1,66 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import static com.github.graphql.feder.GraphQLAPI.APPLICATION_GRAPHQL_JSON_TYPE;
+
+/**
+ * Writes the {@link GatewayResponse} with a {@link JsonGenerator} directly to the response stream,
+ * so big responses are never held as a <code>JsonObject</code> and a JSON-B string in addition to the execution result.
+ */
+@Provider
+@Produces({APPLICATION_GRAPHQL_JSON_TYPE, MediaType.APPLICATION_JSON})
+public class GatewayResponseWriter implements MessageBodyWriter<GatewayResponse> {
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+    @Override public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return GatewayResponse.class.isAssignableFrom(type);
+    }
+
+    @Override public void writeTo(GatewayResponse response, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                                  MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) {
+        // don't close the generator, as that would close the entity stream
+        var out = GENERATOR_FACTORY.createGenerator(entityStream);
+        write(response, out);
+        out.flush();
+    }
+
+    static void write(GatewayResponse response, JsonGenerator out) {
+        var executionResult = response.executionResult;
+        out.writeStartObject();
+        Map<String, Object> data = executionResult.getData();
+        if (data != null) {
+            out.writeKey("data");
+            JsonMapper.write(data, out);
+        }
+        if (!executionResult.getErrors().isEmpty()) {
+            out.writeStartArray("errors");
+            executionResult.getErrors().forEach(error -> {
+                out.writeStartObject().write("message", error.getMessage());
+                if (error.getExtensions() != null && !error.getExtensions().isEmpty()) {
+                    out.writeKey("extensions");
+                    JsonMapper.write(error.getExtensions(), out);
+                }
+                out.writeEnd();
+            });
+            out.writeEnd();
+        }
+        if (executionResult.getExtensions() != null && !executionResult.getExtensions().isEmpty()) {
+            out.writeKey("extensions");
+            JsonMapper.write(executionResult.getExtensions(), out);
+        }
+        out.writeEnd();
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.graphql.feder;
 
+import jakarta.json.Json;
 import jakarta.json.JsonObject;
 import jakarta.json.bind.Jsonb;
 import jakarta.json.bind.JsonbBuilder;
@@ -13,6 +14,7 @@ import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
 
 import java.io.Closeable;
+import java.io.StringReader;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,13 +31,23 @@ public interface GraphQLAPI extends Closeable {
     @Produces(APPLICATION_GRAPHQL_JSON_TYPE)
     @POST GraphQLResponse request(GraphQLRequest request);
 
+    default GraphQLResponse request(String query, JsonObject variables) {
+        return request(query, variables, null);
+    }
+
+    /**
+     * The <code>extensions</code> are a JSON object, e.g. for an automatic persisted query
+     * <code>{"persistedQuery":{"version":1,"sha256Hash":"..."}}</code>; then the <code>query</code> can be omitted,
+     * so the response can be cached by a CDN.
+     */
     @GET
     @Produces(APPLICATION_GRAPHQL_JSON_TYPE)
-    default GraphQLResponse request(@QueryParam("query") String query, JsonObject variables) {
+    default GraphQLResponse request(@QueryParam("query") String query, JsonObject variables, @QueryParam("extensions") String extensions) {
         // TODO verify that the query is not a mutation
         return request(GraphQLRequest.builder()
             .query(query)
             .variables(variables)
+            .extensions((extensions == null) ? null : Json.createReader(new StringReader(extensions)).readObject())
             .build());
     }
 
@@ -52,28 +64,35 @@ public interface GraphQLAPI extends Closeable {
         String query;
         JsonObject variables;
         String operationName;
+        JsonObject extensions;
 
         public Optional<JsonObject> variables() {return Optional.ofNullable(variables);}
 
         public Optional<String> operationName() {return Optional.ofNullable(operationName);}
+
+        public Optional<JsonObject> extensions() {return Optional.ofNullable(extensions);}
     }
 
     @Data @SuperBuilder @NoArgsConstructor
     class GraphQLResponse {
         JsonObject data;
         List<GraphQLError> errors;
+        JsonObject extensions;
 
         public <T> T getData(String name, Class<T> type) {
+            var data = getData();
             var value = (data == null) ? null : data.get(name);
             return (value == null) ? null : JSONB.fromJson(value.toString(), type);
         }
 
-        public boolean hasErrors() {return errors != null && !errors.isEmpty();}
+        public boolean hasErrors() {return getErrors() != null && !getErrors().isEmpty();}
     }
 
     @Data @SuperBuilder @NoArgsConstructor
     class GraphQLError {
         String message;
+        /** The field names and list indexes of the field the error is about, e.g. <code>["_entities", 1, "name"]</code> */
+        List<Object> path;
         Map<String, Object> extensions;
 
         public GraphQLError withExtension(String key, Object value) {
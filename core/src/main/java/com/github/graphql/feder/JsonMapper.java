@@ -6,8 +6,12 @@ import jakarta.json.JsonNumber;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonString;
 import jakarta.json.JsonValue;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -30,7 +34,7 @@ class JsonMapper {
         };
     }
 
-    private static List<Object> map(JsonArray value) {
+    static List<Object> map(JsonArray value) {
         return value.stream()
             .map(JsonMapper::map)
             .collect(toList());
@@ -43,6 +47,70 @@ class JsonMapper {
         return map;
     }
 
+    /** Read the value starting with the current <code>event</code> directly from the parser, i.e. without a {@link JsonValue} */
+    static Object read(JsonParser parser, Event event) {
+        return switch (event) {
+            case START_ARRAY -> {
+                var list = new ArrayList<>();
+                Event next;
+                while ((next = parser.next()) != Event.END_ARRAY) list.add(read(parser, next));
+                yield list;
+            }
+            case START_OBJECT -> {
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.next() != Event.END_OBJECT) {
+                    var key = parser.getString();
+                    map.put(key, read(parser, parser.next()));
+                }
+                yield map;
+            }
+            case VALUE_STRING -> parser.getString();
+            case VALUE_NUMBER -> number(parser);
+            case VALUE_TRUE -> true;
+            case VALUE_FALSE -> false;
+            case VALUE_NULL -> null;
+            case KEY_NAME, END_OBJECT, END_ARRAY -> throw new IllegalStateException("unexpected json parser event " + event);
+        };
+    }
+
+    private static Number number(JsonParser parser) {
+        var value = parser.getBigDecimal();
+        if (!parser.isIntegralNumber()) return value;
+        if (value.compareTo(INT_MIN) >= 0 && value.compareTo(INT_MAX) <= 0) return value.intValue();
+        if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0) return value.longValue();
+        return value;
+    }
+
+    private static final BigDecimal INT_MIN = BigDecimal.valueOf(Integer.MIN_VALUE);
+    private static final BigDecimal INT_MAX = BigDecimal.valueOf(Integer.MAX_VALUE);
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    /** Write the value directly to the generator, i.e. without building a {@link JsonValue} */
+    static void write(Object value, JsonGenerator out) {
+        if (value == null) out.writeNull();
+        else if (value instanceof String s) out.write(s);
+        else if (value instanceof Boolean b) out.write(b);
+        else if (value instanceof Integer i) out.write(i);
+        else if (value instanceof Long l) out.write(l);
+        else if (value instanceof Double d) out.write(d);
+        else if (value instanceof BigInteger i) out.write(i);
+        else if (value instanceof BigDecimal d) out.write(d);
+        else if (value instanceof Map<?, ?> m) {
+            out.writeStartObject();
+            m.forEach((key, item) -> {
+                out.writeKey(key.toString());
+                write(item, out);
+            });
+            out.writeEnd();
+        } else if (value instanceof Collection<?> c) {
+            out.writeStartArray();
+            c.forEach(item -> write(item, out));
+            out.writeEnd();
+        } else if (value instanceof Number n) out.write(new BigDecimal(n.toString()));
+        else out.write(value.toString());
+    }
+
     public static JsonValue toJson(Object value) {
         if (value == null) return JsonValue.NULL;
         if (value == TRUE) return JsonValue.TRUE;
@@ -0,0 +1,396 @@
+package com.github.graphql.feder;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Spreads the requests to one service over several instances, so they don't need a load balancer in front of them.
+ * Every request goes to the instance with the fewest requests outstanding: either of all instances, or of two
+ * random ones (power of two choices), which is almost as good but doesn't send bursts to the same instance.
+ * Ties go to the instance with the lower average latency.
+ * <p>
+ * Instances are ejected passively: after some consecutive failures, or when their average latency exceeds a threshold,
+ * they get no requests for the ejection duration. The last healthy instance is never ejected.
+ * <p>
+ * The <code>_entities</code> requests are reads, so they can be {@link Hedging hedged}: if the first instance doesn't
+ * answer in time, e.g. because of a GC pause, a second copy goes to another instance; the first answer wins.
+ * The clients can't abort a request, so the other one runs to its end, and then its answer is discarded,
+ * e.g. its stream closed. Only the non-blocking requests are hedged.
+ */
+@Slf4j
+class LoadBalancer implements AsyncGraphQLAPI {
+    enum Strategy {
+        LEAST_OUTSTANDING, P2C;
+
+        static Strategy of(String name) {return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));}
+    }
+
+    /**
+     * @param failures the number of consecutive failures that eject an instance; zero or less means never
+     * @param latency  the average latency that ejects an instance; zero means never
+     * @param duration how long an instance is ejected
+     */
+    record Ejection(int failures, Duration latency, Duration duration) {}
+
+    /**
+     * @param delay      the time to wait for the first answer before sending a hedge; zero disables a fixed delay.
+     *                   With a percentile, this is the minimum, and the delay until enough latencies are known.
+     * @param percentile the percentile of the recent latencies to wait for; zero disables it
+     * @param budget     the maximum percentage of requests that may be hedged, so hedging can't amplify an overload
+     */
+    record Hedging(Duration delay, int percentile, int budget) {
+        static final Hedging NONE = new Hedging(Duration.ZERO, 0, 0);
+
+        boolean enabled() {return budget > 0 && (!delay.isZero() || percentile > 0);}
+    }
+
+    /** The number of responses an instance must have had, before its average latency can eject it */
+    private static final int MIN_LATENCY_SAMPLES = 5;
+    /** The weight of the latest response in the average latency */
+    private static final double LATENCY_WEIGHT = 0.2;
+    /** The number of hedges that can be saved up in quiet times */
+    private static final double MAX_HEDGE_TOKENS = 10;
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.debug("can't close the response of a lost hedge", e);
+        }
+    }
+
+    private final String service;
+    private final Strategy strategy;
+    private final Ejection ejection;
+    private final List<Instance> instances;
+    private final Hedging hedging;
+    private final Latencies latencies = new Latencies();
+    private double hedgeTokens;
+    private Counter hedges;
+    private Counter hedgesWon;
+    /** Replaceable in tests */
+    LongSupplier nanoTime = System::nanoTime;
+
+    LoadBalancer(String service, Strategy strategy, Ejection ejection, Hedging hedging,
+                 List<URI> uris, Function<URI, AsyncGraphQLAPI> client) {
+        this.service = service;
+        this.strategy = strategy;
+        this.ejection = ejection;
+        this.hedging = hedging;
+        this.instances = uris.stream().map(uri -> new Instance(uri, client.apply(uri))).toList();
+    }
+
+    /** Record the metrics of every instance; a <code>null</code> registry records nothing */
+    void metrics(MetricRegistry registry) {
+        if (registry == null) return;
+        instances.forEach(instance -> instance.metrics(registry));
+        if (hedging.enabled()) {
+            var tag = new Tag("service", service);
+            hedges = registry.counter(metadata("feder.subgraph.hedges", "hedged requests sent", MetricUnits.NONE), tag);
+            hedgesWon = registry.counter(metadata("feder.subgraph.hedges.won", "hedged requests that answered first", MetricUnits.NONE), tag);
+        }
+    }
+
+    List<Instance> instances() {return instances;}
+
+    @Override public GraphQLResponse request(GraphQLRequest request) {
+        var instance = choose();
+        var start = instance.start();
+        try {
+            var response = instance.api.request(request);
+            instance.complete(start, null);
+            return response;
+        } catch (RuntimeException e) {
+            instance.complete(start, e);
+            throw e;
+        }
+    }
+
+    @Override public InputStream requestStream(GraphQLRequest request) {
+        var instance = choose();
+        var start = instance.start();
+        try {
+            var response = instance.api.requestStream(request);
+            instance.complete(start, null);
+            return response;
+        } catch (RuntimeException e) {
+            instance.complete(start, e);
+            throw e;
+        }
+    }
+
+    @Override public CompletionStage<GraphQLResponse> requestAsync(GraphQLRequest request) {
+        return hedged(api -> api.requestAsync(request), response -> {});
+    }
+
+    @Override public CompletionStage<InputStream> requestStreamAsync(GraphQLRequest request) {
+        return hedged(api -> api.requestStreamAsync(request), LoadBalancer::closeQuietly);
+    }
+
+    /** @param discard releases the answer of the request that lost */
+    private <T> CompletionStage<T> hedged(Function<AsyncGraphQLAPI, CompletionStage<T>> call, Consumer<T> discard) {
+        var first = choose();
+        if (!hedging.enabled()) return send(first, call);
+        depositHedgeToken();
+        var delay = hedgeDelayNanos();
+        if (delay <= 0) return send(first, call);
+        var hedged = new Hedged<>(discard);
+        hedged.add(send(first, call), false);
+        CompletableFuture.delayedExecutor(delay, NANOSECONDS).execute(() -> {
+            if (hedged.result.isDone()) return;
+            var second = other(first);
+            if (second == null || !withdrawHedgeToken()) return;
+            if (hedges != null) hedges.inc();
+            log.debug("hedge request to {} after {}µs on {}", service, delay / 1000, second.uri);
+            hedged.add(send(second, call), true);
+        });
+        return hedged.result;
+    }
+
+    private <T> CompletableFuture<T> send(Instance instance, Function<AsyncGraphQLAPI, CompletionStage<T>> call) {
+        var start = instance.start();
+        CompletableFuture<T> future;
+        try {
+            future = call.apply(instance.api).toCompletableFuture();
+        } catch (RuntimeException e) {
+            instance.complete(start, e);
+            return CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((response, throwable) -> instance.complete(start, throwable));
+        return future;
+    }
+
+    /**
+     * The first and the hedged request; the first answer completes the result, and the answer of the other request is discarded.
+     * The calls are never cancelled, as that wouldn't abort the request, and the answer would get lost without being released.
+     */
+    private class Hedged<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final Consumer<T> discard;
+        private int pending;
+
+        private Hedged(Consumer<T> discard) {this.discard = discard;}
+
+        private void add(CompletableFuture<T> call, boolean hedge) {
+            synchronized (this) {
+                pending++;
+            }
+            call.whenComplete((value, throwable) -> completed(value, throwable, hedge));
+        }
+
+        private void completed(T value, Throwable throwable, boolean hedge) {
+            boolean last;
+            synchronized (this) {
+                last = --pending == 0;
+            }
+            if (throwable == null) {
+                if (result.complete(value)) {
+                    if (hedge && hedgesWon != null) hedgesWon.inc();
+                } else {
+                    discard.accept(value);
+                }
+            } else if (last) {
+                // with a hedge in flight, a failure of one request waits for the other one
+                result.completeExceptionally(throwable);
+            }
+        }
+    }
+
+    private long hedgeDelayNanos() {
+        var delay = hedging.delay().toNanos();
+        if (hedging.percentile() <= 0) return delay;
+        return Math.max(delay, latencies.percentile(hedging.percentile()));
+    }
+
+    private synchronized void depositHedgeToken() {
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + hedging.budget() / 100.0);
+    }
+
+    private synchronized boolean withdrawHedgeToken() {
+        if (hedgeTokens < 1) return false;
+        hedgeTokens--;
+        return true;
+    }
+
+    /** Another healthy instance for a hedge, or <code>null</code> if there is none */
+    private Instance other(Instance excluded) {
+        var now = nanoTime.getAsLong();
+        return instances.stream()
+            .filter(instance -> instance != excluded && !instance.isEjected(now))
+            .reduce(LoadBalancer::better)
+            .orElse(null);
+    }
+
+    @Override public String schema() {return choose().api.schema();}
+
+    @Override public void close() {instances.forEach(instance -> instance.api.close());}
+
+    Instance choose() {
+        var now = nanoTime.getAsLong();
+        var healthy = instances.stream().filter(instance -> !instance.isEjected(now)).toList();
+        if (healthy.isEmpty()) healthy = instances; // e.g. all were ejected at the same time
+        if (healthy.size() == 1) return healthy.get(0);
+        if (strategy == Strategy.P2C) {
+            var random = ThreadLocalRandom.current();
+            var first = random.nextInt(healthy.size());
+            var second = random.nextInt(healthy.size() - 1);
+            if (second >= first) second++;
+            return better(healthy.get(first), healthy.get(second));
+        }
+        var best = healthy.get(0);
+        for (int i = 1; i < healthy.size(); i++) best = better(best, healthy.get(i));
+        return best;
+    }
+
+    private static Instance better(Instance a, Instance b) {
+        var outstanding = Integer.compare(a.outstanding.get(), b.outstanding.get());
+        if (outstanding != 0) return (outstanding < 0) ? a : b;
+        return (a.latency() <= b.latency()) ? a : b;
+    }
+
+    /** Synchronized, so two instances can't be ejected at the same time, leaving none */
+    private synchronized boolean eject(Instance candidate) {
+        var now = nanoTime.getAsLong();
+        if (instances.stream().noneMatch(instance -> instance != candidate && !instance.isEjected(now))) return false;
+        return candidate.ejectUntil(now + ejection.duration().toNanos());
+    }
+
+    class Instance {
+        final URI uri;
+        private final AsyncGraphQLAPI api;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private int consecutiveFailures;
+        private int samples;
+        private double latency;
+        private long ejectedUntil;
+        private boolean ejected;
+        private Counter requests;
+        private Counter failures;
+        private Counter ejections;
+        private Timer duration;
+
+        private Instance(URI uri, AsyncGraphQLAPI api) {
+            this.uri = uri;
+            this.api = api;
+        }
+
+        private void metrics(MetricRegistry registry) {
+            var tags = new Tag[]{new Tag("service", service), new Tag("instance", uri.toString())};
+            requests = registry.counter(metadata("feder.subgraph.instance.requests", "requests sent to the instance", MetricUnits.NONE), tags);
+            failures = registry.counter(metadata("feder.subgraph.instance.failures", "requests to the instance that failed", MetricUnits.NONE), tags);
+            ejections = registry.counter(metadata("feder.subgraph.instance.ejections", "times the instance was ejected", MetricUnits.NONE), tags);
+            duration = registry.timer(metadata("feder.subgraph.instance.duration", "time until the response arrived", MetricUnits.NANOSECONDS), tags);
+            registry.gauge(metadata("feder.subgraph.instance.outstanding", "requests in flight to the instance", MetricUnits.NONE),
+                outstanding, AtomicInteger::get, tags);
+        }
+
+        int outstanding() {return outstanding.get();}
+
+        synchronized double latency() {return latency;}
+
+        synchronized boolean isEjected(long now) {
+            if (ejected && now - ejectedUntil >= 0) {
+                log.info("return instance {} of service {} from ejection", uri, service);
+                ejected = false;
+                consecutiveFailures = samples = 0;
+                latency = 0;
+            }
+            return ejected;
+        }
+
+        private long start() {
+            outstanding.incrementAndGet();
+            if (requests != null) requests.inc();
+            return nanoTime.getAsLong();
+        }
+
+        private void complete(long start, Throwable throwable) {
+            outstanding.decrementAndGet();
+            var nanos = nanoTime.getAsLong() - start;
+            if (throwable == null && hedging.percentile() > 0) latencies.add(nanos);
+            if (duration != null) duration.update(Duration.ofNanos(nanos));
+            if (throwable != null && failures != null) failures.inc();
+            String reason = null;
+            synchronized (this) {
+                if (throwable == null) {
+                    consecutiveFailures = 0;
+                    latency = (samples++ == 0) ? nanos : LATENCY_WEIGHT * nanos + (1 - LATENCY_WEIGHT) * latency;
+                    if (!ejection.latency().isZero() && samples >= MIN_LATENCY_SAMPLES && latency > ejection.latency().toNanos())
+                        reason = "average latency " + (long) (latency / 1_000_000) + "ms";
+                } else if (ejection.failures() > 0 && ++consecutiveFailures >= ejection.failures()) {
+                    reason = consecutiveFailures + " consecutive failures";
+                }
+            }
+            if (reason != null && eject(this)) {
+                if (ejections != null) ejections.inc();
+                log.warn("eject instance {} of service {} for {}ms after {}", uri, service, ejection.duration().toMillis(), reason);
+            }
+        }
+
+        private synchronized boolean ejectUntil(long until) {
+            if (ejected) return false;
+            ejected = true;
+            ejectedUntil = until;
+            return true;
+        }
+
+        @Override public String toString() {return uri + "[" + outstanding + "]";}
+    }
+
+    /** The recent latencies of all instances, to hedge at a percentile */
+    private static class Latencies {
+        private static final int SIZE = 1000;
+        /** Sorting the samples for every request would be too expensive */
+        private static final int UPDATE_INTERVAL = 100;
+
+        private final long[] samples = new long[SIZE];
+        private int next;
+        private int count;
+        private int sinceUpdate;
+        private long[] sorted = new long[0];
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % SIZE;
+            if (count < SIZE) count++;
+            if (++sinceUpdate >= UPDATE_INTERVAL) {
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                sinceUpdate = 0;
+            }
+        }
+
+        /** Zero until there are enough samples */
+        synchronized long percentile(int percentile) {
+            if (sorted.length == 0) return 0;
+            var index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    private static Metadata metadata(String name, String description, String unit) {
+        return Metadata.builder().withName(name).withDescription(description).withUnit(unit).build();
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.graphql.feder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache with a maximum size that evicts the least recently used entries.
+ * Values are computed outside the lock, so a slow computation doesn't block other readers;
+ * two threads computing the same key concurrently is rare and harmless.
+ */
+class LruCache<K, V> {
+    private final int maxSize;
+    private final Map<K, V> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                var evict = size() > LruCache.this.maxSize;
+                if (evict) evictions.increment();
+                return evict;
+            }
+        };
+    }
+
+    V computeIfAbsent(K key, Function<K, V> function) {
+        var value = get(key);
+        if (value == null) {
+            value = function.apply(key);
+            if (value != null) put(key, value);
+        }
+        return value;
+    }
+
+    V get(K key) {
+        V value;
+        synchronized (map) {
+            value = map.get(key);
+        }
+        if (value == null) misses.increment();
+        else hits.increment();
+        return value;
+    }
+
+    void put(K key, V value) {
+        if (maxSize <= 0) return;
+        synchronized (map) {
+            map.put(key, value);
+        }
+    }
+
+    void remove(K key) {
+        synchronized (map) {
+            map.remove(key);
+        }
+    }
+
+    void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    int maxSize() {return maxSize;}
+
+    long hits() {return hits.sum();}
+
+    long misses() {return misses.sum();}
+
+    long evictions() {return evictions.sum();}
+
+    @Override public String toString() {
+        return "LruCache(size=" + size() + "/" + maxSize + ", hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions() + ")";
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.graphql.feder;
+
+import graphql.ExecutionResult;
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.language.Field;
+import graphql.schema.GraphQLFieldsContainer;
+import lombok.RequiredArgsConstructor;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static graphql.execution.instrumentation.SimpleInstrumentationContext.noOp;
+
+/**
+ * Rejects operations that are too deep, have too many aliases or fields, or would cause too many
+ * <code>_entities</code> requests, after validation and before any service is called.
+ * <p>
+ * The cost is an upper bound: for every occurrence of a root field, the number of services that have to fetch
+ * some of the selected fields, i.e. not counting the key or <code>__typename</code>.
+ * The <code>DataLoader</code> batches the requests of one level, so the actual number is often smaller.
+ */
+@RequiredArgsConstructor
+class QueryLimits extends SimplePerformantInstrumentation {
+    /** Zero or less disables the limit */
+    record Limits(int maxDepth, int maxAliases, int maxFields, int maxCost) {}
+
+    record Measure(int depth, int aliases, int fields, int cost) {}
+
+    private final Limits limits;
+    private final List<FederatedGraphQLService> services;
+    /** Optional, i.e. <code>null</code> without MicroProfile Metrics */
+    private final GatewayMetrics metrics;
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters,
+                                                                         InstrumentationState state) {
+        var measure = measure(parameters.getExecutionContext());
+        if (metrics != null) metrics.measured(measure);
+        check("depth", measure.depth(), limits.maxDepth());
+        check("aliases", measure.aliases(), limits.maxAliases());
+        check("fields", measure.fields(), limits.maxFields());
+        check("cost", measure.cost(), limits.maxCost());
+        return noOp();
+    }
+
+    private void check(String limit, int actual, int max) {
+        if (max <= 0 || actual <= max) return;
+        if (metrics != null) metrics.rejected(limit);
+        throw new QueryLimitException(limit, actual, max);
+    }
+
+    Measure measure(ExecutionContext context) {
+        var visitor = new MeasuringVisitor();
+        QueryTraverser.newQueryTraverser()
+            .schema(context.getGraphQLSchema())
+            .document(context.getDocument())
+            .operationName(context.getOperationDefinition().getName())
+            .coercedVariables(context.getCoercedVariables())
+            .build()
+            .visitPreOrder(visitor);
+        var cost = visitor.fetchingServices.values().stream().mapToInt(Set::size).sum();
+        return new Measure(visitor.depth, visitor.aliases, visitor.fields, cost);
+    }
+
+    private class MeasuringVisitor extends QueryVisitorStub {
+        private int depth;
+        private int aliases;
+        private int fields;
+        /** By occurrence of a root field */
+        private final Map<Field, Set<String>> fetchingServices = new IdentityHashMap<>();
+
+        @Override public void visitField(QueryVisitorFieldEnvironment env) {
+            fields++;
+            if (env.getField().getAlias() != null) aliases++;
+            var level = 1;
+            for (var parent = env.getParentEnvironment(); parent != null; parent = parent.getParentEnvironment()) level++;
+            depth = Math.max(depth, level);
+
+            if (level == 2 && !env.isTypeNameIntrospectionField()) {
+                var root = env.getParentEnvironment();
+                var services = fetchingServices.computeIfAbsent(root.getField(), field -> new HashSet<>());
+                services.addAll(fetching(root.getFieldsContainer(), root.getField().getName(), env.getFieldsContainer(), env.getField().getName()));
+            }
+        }
+
+        /** The services that resolve the root field and have to fetch the selected field of it */
+        private Set<String> fetching(GraphQLFieldsContainer rootType, String rootField, GraphQLFieldsContainer type, String field) {
+            var names = new HashSet<String>();
+            for (var service : services) {
+                var serviceRoot = service.getSchema().getObjectType(rootType.getName());
+                if (serviceRoot == null || serviceRoot.getFieldDefinition(rootField) == null) continue;
+                if (!service.resolves(type.getName(), field)) continue;
+                if (service.isKeyField(type.getName(), field)) continue; // we already know the key
+                names.add(service.getName());
+            }
+            return names;
+        }
+    }
+
+    private static class QueryLimitException extends AbortExecutionException {
+        private final Map<String, Object> extensions = new LinkedHashMap<>();
+
+        private QueryLimitException(String limit, int actual, int max) {
+            super("operation exceeds the maximum " + limit + " of " + max + ": " + actual);
+            extensions.put("code", "QUERY_LIMIT");
+            extensions.put("limit", limit);
+            extensions.put("max", max);
+            extensions.put("actual", actual);
+        }
+
+        @Override public Map<String, Object> getExtensions() {return extensions;}
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.graphql.feder;
+
+import graphql.GraphQLContext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link FetchPlan}s of all root fields of one operation, and the <code>_entities</code> requests they result in,
+ * in stages: all fetches of a stage run in parallel, and a stage only waits for the fetches of the previous stage
+ * it depends on, i.e. for the fields another service <code>@requires</code>.
+ * The fetches of one stage from the same service for the same type are merged into one request,
+ * unless the same field or variable has different arguments.
+ * <p>
+ * The data fetchers take the plan from the {@link GraphQLContext} of the execution; it's created and cached by the {@link QueryPlanner}.
+ * It's an upper bound, as the {@link EntityMemo} and the {@link EntityCache} may already have some fields.
+ */
+class QueryPlan {
+    /** @return the plan of the operation, or <code>null</code> if it's not planned */
+    static QueryPlan of(GraphQLContext context) {return (context == null) ? null : context.get(QueryPlan.class);}
+
+    /**
+     * One <code>_entities</code> request.
+     * @param paths the result keys of the root fields it fetches the entities for
+     * @param requiredBy the services that <code>@require</code> some of the fields
+     * @param dependsOn the ids of the fetches of the previous stage that have to complete first
+     */
+    record Fetch(int id, String service, String type, List<String> paths, List<String> fields, List<String> requiredBy,
+                 List<Integer> dependsOn) {
+        Map<String, Object> toMap() {
+            var map = new LinkedHashMap<String, Object>();
+            map.put("id", id);
+            map.put("service", service);
+            map.put("type", type);
+            map.put("paths", paths);
+            map.put("fields", fields);
+            if (!requiredBy.isEmpty()) map.put("requiredBy", requiredBy);
+            if (!dependsOn.isEmpty()) map.put("dependsOn", dependsOn);
+            return map;
+        }
+    }
+
+    /** @param fetchPlans by the result key of the root field */
+    static QueryPlan of(Map<String, FetchPlan> fetchPlans) {
+        var first = new LinkedHashMap<String, Builder>(); // by service and type
+        var second = new ArrayList<Builder>();
+        fetchPlans.forEach((path, fetchPlan) -> {
+            var typeName = fetchPlan.typeName();
+            for (var step : fetchPlan.steps()) {
+                var service = step.service();
+                var fields = step.fields().stream().filter(field -> !service.isKeyField(typeName, field)).toList();
+                if (fields.isEmpty()) continue; // we already know the key
+                if (step.requires().isEmpty()) {
+                    first.computeIfAbsent(service.getName() + ":" + typeName, key -> new Builder(service.getName(), typeName))
+                        .add(path, fields);
+                } else {
+                    var builder = new Builder(service.getName(), typeName).add(path, fields);
+                    step.requires().forEach((owner, fieldSet) -> {
+                        var required = first.computeIfAbsent(owner.getName() + ":" + typeName, key -> new Builder(owner.getName(), typeName))
+                            .add(path, fieldSet.names());
+                        required.requiredBy.add(service.getName());
+                        builder.dependsOn.add(required);
+                    });
+                    second.add(builder);
+                }
+            }
+        });
+
+        var stages = new ArrayList<List<Fetch>>();
+        var ids = new LinkedHashMap<Builder, Integer>();
+        for (var stage : List.of(List.copyOf(first.values()), second)) {
+            if (stage.isEmpty()) continue;
+            stages.add(stage.stream().map(builder -> {
+                ids.put(builder, ids.size() + 1);
+                return builder.build(ids);
+            }).toList());
+        }
+        return new QueryPlan(Map.copyOf(fetchPlans), List.copyOf(stages));
+    }
+
+    private static class Builder {
+        private final String service;
+        private final String type;
+        private final Set<String> paths = new LinkedHashSet<>();
+        private final Set<String> fields = new LinkedHashSet<>();
+        private final Set<String> requiredBy = new LinkedHashSet<>();
+        private final Set<Builder> dependsOn = new LinkedHashSet<>();
+
+        private Builder(String service, String type) {
+            this.service = service;
+            this.type = type;
+        }
+
+        private Builder add(String path, List<String> fields) {
+            this.paths.add(path);
+            this.fields.addAll(fields);
+            return this;
+        }
+
+        private Fetch build(Map<Builder, Integer> ids) {
+            return new Fetch(ids.get(this), service, type, List.copyOf(paths), List.copyOf(fields), List.copyOf(requiredBy),
+                dependsOn.stream().map(ids::get).toList());
+        }
+    }
+
+    private final Map<String, FetchPlan> fetchPlans;
+    private final List<List<Fetch>> stages;
+
+    private QueryPlan(Map<String, FetchPlan> fetchPlans, List<List<Fetch>> stages) {
+        this.fetchPlans = fetchPlans;
+        this.stages = stages;
+    }
+
+    /** @return the plan for the root field with this result key, or <code>null</code> if it's not federated */
+    FetchPlan fetchPlan(String resultKey) {return fetchPlans.get(resultKey);}
+
+    List<List<Fetch>> stages() {return stages;}
+
+    int fetches() {return stages.stream().mapToInt(List::size).sum();}
+
+    /** For the explain endpoint */
+    Map<String, Object> toMap() {
+        var list = new ArrayList<Object>();
+        stages.forEach(stage -> list.add(Map.of("fetches", stage.stream().map(Fetch::toMap).toList())));
+        var map = new LinkedHashMap<String, Object>();
+        map.put("fetches", fetches());
+        map.put("stages", list);
+        return map;
+    }
+
+    @Override public String toString() {return "QueryPlan" + stages;}
+}
@@ -0,0 +1,117 @@
+package com.github.graphql.feder;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.language.Directive;
+import graphql.language.Document;
+import graphql.language.Node;
+import graphql.language.NodeTraverser;
+import graphql.language.NodeVisitorStub;
+import graphql.language.OperationDefinition;
+import graphql.language.VariableReference;
+import graphql.normalized.ExecutableNormalizedOperation;
+import graphql.schema.DataFetchingFieldSelectionSetImpl;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.util.TraversalControl;
+import graphql.util.TraverserContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static graphql.execution.instrumentation.SimpleInstrumentationContext.noOp;
+import static graphql.schema.GraphQLTypeUtil.unwrapAll;
+
+/**
+ * Plans every operation as a whole before it's executed, and puts the {@link QueryPlan} into the context of the execution.
+ * <p>
+ * The plans are cached by document and operation name; as the {@link DocumentCache} returns the same document for the
+ * same query, the plan is computed only once for every operation. If the operation has <code>@skip</code> or
+ * <code>@include</code> directives with variables, there is a plan for every combination of their values.
+ * The plans are only valid for one schema, so every {@link Supergraph.Version} has its own planner.
+ */
+@Slf4j
+class QueryPlanner extends SimplePerformantInstrumentation {
+    private final List<FederatedGraphQLService> services;
+    private final LruCache<Key, Plans> cache;
+
+    QueryPlanner(List<FederatedGraphQLService> services, int maxSize) {
+        this.services = services;
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters,
+                                                                         InstrumentationState state) {
+        var context = parameters.getExecutionContext();
+        var plan = plan(context.getGraphQLSchema(), context.getDocument(), context.getOperationDefinition().getName(),
+            context.getCoercedVariables().toMap(), context.getNormalizedQueryTree());
+        context.getGraphQLContext().put(QueryPlan.class, plan);
+        return noOp();
+    }
+
+    QueryPlan plan(GraphQLSchema schema, Document document, String operationName, Map<String, Object> variables,
+                   Supplier<ExecutableNormalizedOperation> operation) {
+        var plans = cache.computeIfAbsent(new Key(document, operationName), key -> new Plans(conditionVariables(document)));
+        var conditions = new HashMap<String, Object>();
+        plans.conditionVariables.forEach(name -> conditions.put(name, variables.get(name)));
+        return plans.byConditions.computeIfAbsent(conditions, key -> plan(schema, operation.get()));
+    }
+
+    private QueryPlan plan(GraphQLSchema schema, ExecutableNormalizedOperation operation) {
+        var fetchPlans = new LinkedHashMap<String, FetchPlan>();
+        if (operation.getOperation() == OperationDefinition.Operation.QUERY) {
+            for (var field : operation.getTopLevelFields()) {
+                var resolving = services.stream()
+                    .filter(service -> service.getSchema().getQueryType().getFieldDefinition(field.getName()) != null)
+                    .toList();
+                var type = field.getType(schema);
+                if (resolving.isEmpty() || !(unwrapAll(type) instanceof GraphQLObjectType objectType)) continue;
+                var selectionSet = DataFetchingFieldSelectionSetImpl.newCollector(schema, type, () -> field);
+                try {
+                    fetchPlans.put(field.getResultKey(), FetchPlan.of(resolving, field.getName(), objectType.getName(), selectionSet));
+                } catch (FederationException e) {
+                    log.debug("can't plan {}: {}", field.getResultKey(), e.getMessage()); // the data fetcher fails only this field
+                }
+            }
+        }
+        return QueryPlan.of(fetchPlans);
+    }
+
+    /** The variables that decide if a field is skipped or included */
+    private static Set<String> conditionVariables(Document document) {
+        var names = new HashSet<String>();
+        new NodeTraverser().depthFirst(new NodeVisitorStub() {
+            @Override public TraversalControl visitDirective(Directive node, TraverserContext<Node> context) {
+                if (node.getName().equals("skip") || node.getName().equals("include")) node.getArguments().forEach(argument -> {
+                    if (argument.getValue() instanceof VariableReference variable) names.add(variable.getName());
+                });
+                return TraversalControl.CONTINUE;
+            }
+        }, document);
+        return Set.copyOf(names);
+    }
+
+    int size() {return cache.size();}
+
+    long hits() {return cache.hits();}
+
+    long misses() {return cache.misses();}
+
+    /** The document is compared by identity, as it has no <code>equals</code> */
+    private record Key(Document document, String operationName) {}
+
+    private record Plans(Set<String> conditionVariables, Map<Map<String, Object>, QueryPlan> byConditions) {
+        private Plans(Set<String> conditionVariables) {this(conditionVariables, new ConcurrentHashMap<>());}
+    }
+}
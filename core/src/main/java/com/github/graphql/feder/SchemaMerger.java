@@ -1,5 +1,8 @@
 package com.github.graphql.feder;
 
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.FieldCoordinates;
@@ -23,28 +26,34 @@ import graphql.schema.GraphQLTypeVisitorStub;
 import graphql.schema.SchemaTraverser;
 import graphql.util.TraversalControl;
 import graphql.util.TraverserContext;
-import jakarta.enterprise.context.ApplicationScoped;
-import jakarta.enterprise.inject.Produces;
-import jakarta.inject.Inject;
 import lombok.RequiredArgsConstructor;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
 import static graphql.Scalars.GraphQLID;
 import static graphql.Scalars.GraphQLInt;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
 import static java.util.stream.Collectors.toList;
+import static lombok.AccessLevel.PRIVATE;
 
 /**
  * Merge the federated services into one global GraphQL schema.
- * Application scoped as a cache. Invalidate the cache by restarting ;-)
+ * The merger collects state while traversing the service schemas, so it's only used once per merge;
+ * the {@link Supergraph} holds the result.
  */
-@ApplicationScoped
-@RequiredArgsConstructor(onConstructor_ = {@Inject})
+@RequiredArgsConstructor(access = PRIVATE)
 class SchemaMerger extends GraphQLTypeVisitorStub {
+    static GraphQLSchema merge(List<FederatedGraphQLService> services) {
+        return new SchemaMerger(services).build();
+    }
+
     private final List<FederatedGraphQLService> services;
 
     private final Map<String, TypeBuilder> typeBuilders = new LinkedHashMap<>();
@@ -54,20 +63,12 @@ class SchemaMerger extends GraphQLTypeVisitorStub {
     private final GraphQLSchema.Builder out = GraphQLSchema.newSchema()
         .clearDirectives()
         .clearSchemaDirectives();
-    private GraphQLSchema schema;
 
     private GraphQLSchema currentlyMergingSchema;
     private TypeBuilder currentTypeBuilder;
     private EnumBuilder currentEnumBuilder;
     private FieldBuilder currentFieldBuilder;
 
-    @Produces
-    GraphQLSchema merge() {
-        if (schema == null)
-            schema = build();
-        return schema;
-    }
-
     private GraphQLSchema build() {
         services.forEach(this::merge);
 
@@ -97,7 +98,8 @@ class SchemaMerger extends GraphQLTypeVisitorStub {
     }
 
     @Override public TraversalControl visitGraphQLEnumType(GraphQLEnumType node, TraverserContext<GraphQLSchemaElement> context) {
-        if (hasStandardNodeName(node))
+        // the cache control hints are for the gateway, not for the clients
+        if (hasStandardNodeName(node) && !node.getName().equals("CacheControlScope"))
             enumBuilders.add(currentEnumBuilder = new EnumBuilder(node));
         else currentEnumBuilder = null;
 
@@ -231,6 +233,11 @@ class SchemaMerger extends GraphQLTypeVisitorStub {
         }
     }
 
+    /**
+     * Starts the fetches of all services contributing to a field at once, as planned by the {@link FetchPlan}
+     * from the {@link QueryPlan} of the operation, and merges their partial results.
+     * A failing service doesn't abort the merge, but results in a field error next to the data of the other services.
+     */
     private static class MergedDataFetcher implements DataFetcher<Object> {
         private final List<DataFetcher<?>> dataFetchers;
 
@@ -241,17 +248,56 @@ class SchemaMerger extends GraphQLTypeVisitorStub {
                     : Stream.of(dataFetcher)).collect(toList());
         }
 
-        @Override public Object get(DataFetchingEnvironment environment) throws Exception {
-            Map<String, Object> out = null;
-            for (var dataFetcher : dataFetchers) {
-                @SuppressWarnings("unchecked")
-                var value = (Map<String, Object>) dataFetcher.get(environment);
-                if (out == null)
-                    out = value;
-                else
-                    out.putAll(value);
+        @Override public Object get(DataFetchingEnvironment environment) {
+            var queryPlan = QueryPlan.of(environment.getGraphQlContext());
+            var planned = (queryPlan == null) ? null : queryPlan.fetchPlan(environment.getExecutionStepInfo().getResultKey());
+            FetchPlan plan;
+            try {
+                plan = (planned != null) ? planned : FetchPlan.of(services(), environment);
+            } catch (RuntimeException e) {
+                return failedFuture(e);
+            }
+            var futures = dataFetchers.stream().map(dataFetcher -> (dataFetcher instanceof FederatedGraphQLService service)
+                ? plan.execute(service, environment)
+                : future(dataFetcher, environment)).toList();
+            return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .handle((ignored, throwable) -> merge(futures, environment));
+        }
+
+        private List<FederatedGraphQLService> services() {
+            return dataFetchers.stream()
+                .filter(FederatedGraphQLService.class::isInstance)
+                .map(FederatedGraphQLService.class::cast)
+                .toList();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static CompletableFuture<Map<String, Object>> future(DataFetcher<?> dataFetcher, DataFetchingEnvironment environment) {
+            try {
+                var value = dataFetcher.get(environment);
+                return (value instanceof CompletableFuture<?> future)
+                    ? (CompletableFuture<Map<String, Object>>) future
+                    : completedFuture((Map<String, Object>) value);
+            } catch (Exception e) {
+                return failedFuture(e);
+            }
+        }
+
+        private static DataFetcherResult<Map<String, Object>> merge(List<CompletableFuture<Map<String, Object>>> futures,
+                                                                    DataFetchingEnvironment environment) {
+            Map<String, Object> data = null;
+            var errors = new ArrayList<GraphQLError>();
+            for (var future : futures) {
+                try {
+                    var value = future.join();
+                    if (value == null) continue;
+                    if (data == null) data = new LinkedHashMap<>();
+                    data.putAll(value);
+                } catch (CompletionException e) {
+                    errors.add(GraphqlErrorBuilder.newError(environment).message(e.getCause().getMessage()).build());
+                }
             }
-            return out;
+            return DataFetcherResult.<Map<String, Object>>newResult().data(data).errors(errors).build();
         }
     }
 }
@@ -0,0 +1,105 @@
+package com.github.graphql.feder;
+
+import lombok.RequiredArgsConstructor;
+import org.eclipse.microprofile.config.Config;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+/**
+ * The configuration of one federated service: the uri is <code>graphql.federated.service.&lt;name&gt;</code>,
+ * the other settings are sub-properties, e.g. <code>graphql.federated.service.&lt;name&gt;.max-concurrency</code>.
+ * The uri can be a comma separated list of instances, which are balanced by a {@link LoadBalancer}.
+ */
+@RequiredArgsConstructor
+class ServiceConfig {
+    static final String PREFIX = "graphql.federated.service.";
+
+    static List<ServiceConfig> all(Config config) {
+        return StreamSupport.stream(config.getPropertyNames().spliterator(), false)
+            .filter(name -> name.startsWith(PREFIX))
+            .map(name -> name.substring(PREFIX.length()))
+            .filter(name -> !name.contains("."))
+            .distinct()
+            .sorted()
+            .map(name -> new ServiceConfig(config, name))
+            .toList();
+    }
+
+    private final Config config;
+    final String name;
+
+    /** The first instance */
+    URI uri() {return uris().get(0);}
+
+    List<URI> uris() {return config.getValues(PREFIX + name, URI.class);}
+
+    LoadBalancer.Strategy balancer() {return LoadBalancer.Strategy.of(get("balancer", String.class, "p2c"));}
+
+    LoadBalancer.Ejection ejection() {
+        return new LoadBalancer.Ejection(
+            get("ejection.failures", Integer.class, 5),
+            Duration.ofMillis(get("ejection.latency", Long.class, 0L)),
+            Duration.ofMillis(get("ejection.duration", Long.class, 30_000L)));
+    }
+
+    /** The maximum number of requests in flight to this service; zero or less means unlimited */
+    int maxConcurrency() {return get("max-concurrency", Integer.class, 0);}
+
+    /** The maximum number of requests waiting for the {@link #maxConcurrency()}; zero fails fast, less than zero is unlimited */
+    int maxQueue() {return get("max-queue", Integer.class, -1);}
+
+    /** The maximum time a request waits for the {@link #maxConcurrency()}; zero is unlimited */
+    Duration queueTimeout() {return Duration.ofMillis(get("queue-timeout", Long.class, 0L));}
+
+    /** The maximum time to establish a connection to this service */
+    Duration connectTimeout() {return Duration.ofMillis(get("connect-timeout", Long.class, 5_000L));}
+
+    /** The maximum time to wait for a response from this service */
+    Duration readTimeout() {return Duration.ofMillis(get("read-timeout", Long.class, 30_000L));}
+
+    /** The maximum number of pooled connections to this service; zero or less means the default of the REST client */
+    int poolSize() {return get("pool-size", Integer.class, 0);}
+
+    /** Reuse connections to this service, or close them after every request */
+    boolean keepAlive() {return get("keep-alive", Boolean.class, true);}
+
+    /** The maximum number of entity fields cached for this service; zero or less disables the {@link EntityCache} */
+    int cacheSize() {return get("cache.size", Integer.class, 0);}
+
+    /** The time-to-live of cached fields without a <code>@cacheControl(maxAge:)</code> hint */
+    Duration cacheTtl() {return Duration.ofSeconds(get("cache.ttl", Long.class, 0L));}
+
+    /** The number of last requests the {@link CircuitBreaker} considers; zero or less disables it */
+    int circuitBreakerWindow() {return get("circuit-breaker.window", Integer.class, 20);}
+
+    /** The percentage of failed requests in the window that opens the circuit */
+    int circuitBreakerFailureRate() {return get("circuit-breaker.failure-rate", Integer.class, 50);}
+
+    /** The percentage of slow requests in the window that opens the circuit */
+    int circuitBreakerSlowCallRate() {return get("circuit-breaker.slow-call-rate", Integer.class, 50);}
+
+    /** The duration above which a request counts as slow; zero means never */
+    Duration circuitBreakerSlowCallDuration() {return Duration.ofMillis(get("circuit-breaker.slow-call-duration", Long.class, 0L));}
+
+    /** How long the circuit stays open before a trial request is sent */
+    Duration circuitBreakerOpenDuration() {return Duration.ofMillis(get("circuit-breaker.open-duration", Long.class, 10_000L));}
+
+    CircuitBreaker circuitBreaker() {
+        return new CircuitBreaker(name, circuitBreakerWindow(), circuitBreakerFailureRate(), circuitBreakerSlowCallRate(),
+            circuitBreakerSlowCallDuration(), circuitBreakerOpenDuration());
+    }
+
+    LoadBalancer.Hedging hedging() {
+        return new LoadBalancer.Hedging(
+            Duration.ofMillis(get("hedge.delay", Long.class, 0L)),
+            get("hedge.percentile", Integer.class, 0),
+            get("hedge.budget", Integer.class, 10));
+    }
+
+    private <T> T get(String key, Class<T> type, T defaultValue) {
+        return config.getOptionalValue(PREFIX + name + "." + key, type).orElse(defaultValue);
+    }
+}
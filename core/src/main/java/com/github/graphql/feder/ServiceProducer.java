@@ -1,27 +1,51 @@
 package com.github.graphql.feder;
 
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.metrics.MetricRegistry;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import jakarta.enterprise.context.Dependent;
+import jakarta.enterprise.inject.Disposes;
+import jakarta.enterprise.inject.Instance;
 import jakarta.enterprise.inject.Produces;
 import jakarta.inject.Inject;
-import java.net.URI;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 
 import static java.util.stream.Collectors.toList;
 
 @Dependent // TODO ApplicationScoped
 class ServiceProducer {
     @Inject
-    @ConfigProperty(name = "graphql.federated.service")
-    Map<String, URI> serviceUris;
+    Config config;
+
+    /** Not every runtime provides MicroProfile Metrics */
+    @Inject
+    Instance<MetricRegistry> metricRegistry;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.fetch-mode", defaultValue = "ASYNC")
+    String fetchMode;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.fetch-threads", defaultValue = "32")
+    int fetchThreads;
 
     @Produces
-    List<FederatedGraphQLService> services() {
-        return serviceUris.entrySet().stream()
-            .map(FederatedSchemaBuilder::of)
-            .map(FederatedGraphQLService::new)
+    List<FederatedSchemaBuilder> services() {
+        var mode = FetchMode.of(fetchMode);
+        var executor = mode.executor(fetchThreads);
+        var registry = metricRegistry.isResolvable() ? metricRegistry.get() : null;
+        return ServiceConfig.all(config).stream()
+            .map(serviceConfig -> FederatedSchemaBuilder.of(serviceConfig, mode, executor).metrics(registry))
             .collect(toList());
     }
+
+    /** Shut down the fetch executor shared by the services, e.g. when the application is undeployed */
+    void close(@Disposes List<FederatedSchemaBuilder> services) {
+        services.stream().map(service -> service.client.getExecutor())
+            .filter(Objects::nonNull).distinct()
+            .forEach(ExecutorService::shutdown);
+    }
 }
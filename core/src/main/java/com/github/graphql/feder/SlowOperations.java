@@ -0,0 +1,52 @@
+package com.github.graphql.feder;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static java.util.Comparator.comparingLong;
+
+/**
+ * The slowest operations since the start, limited to a configured number.
+ * Operations faster than the fastest one in the list are rejected without locking.
+ */
+@ApplicationScoped
+class SlowOperations {
+    private static final int MAX_QUERY_LENGTH = 1000;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.slow-operations", defaultValue = "10")
+    int size;
+
+    private final PriorityQueue<Entry> slowest = new PriorityQueue<>(comparingLong(Entry::durationNanos));
+    private volatile long threshold;
+
+    /** @param timing the timeline, if the client requested it */
+    record Entry(String operationName, String query, long durationNanos, Instant at, Map<String, Object> timing) {}
+
+    void record(String operationName, String query, long durationNanos, Map<String, Object> timing) {
+        if (size <= 0 || durationNanos <= threshold) return;
+        if (query != null && query.length() > MAX_QUERY_LENGTH) query = query.substring(0, MAX_QUERY_LENGTH) + "...";
+        synchronized (slowest) {
+            slowest.add(new Entry(operationName, query, durationNanos, Instant.now(), timing));
+            if (slowest.size() > size) slowest.poll();
+            if (slowest.size() == size) threshold = slowest.peek().durationNanos();
+        }
+    }
+
+    /** The slowest first */
+    List<Entry> list() {
+        List<Entry> list;
+        synchronized (slowest) {
+            list = new ArrayList<>(slowest);
+        }
+        list.sort(comparingLong(Entry::durationNanos).reversed());
+        return list;
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Sends the <code>_entities</code> requests to one federated service with the configured {@link FetchMode},
+ * within its {@link ConcurrencyLimit}, so one slow service can only tie up its own share of the gateway,
+ * and only while its {@link CircuitBreaker} is closed. The response body is decoded by a streaming parser,
+ * if the client is an {@link AsyncGraphQLAPI}.
+ */
+@RequiredArgsConstructor
+class SubgraphClient {
+    private final GraphQLAPI graphQLAPI;
+    private final FetchMode fetchMode;
+    /** <code>null</code> in the {@link FetchMode#CALLER} mode */
+    @Getter private final ExecutorService executor;
+    private final ConcurrencyLimit concurrencyLimit;
+    private final CircuitBreaker circuitBreaker;
+
+    SubgraphClient(GraphQLAPI graphQLAPI, FetchMode fetchMode, ExecutorService executor, ConcurrencyLimit concurrencyLimit) {
+        this(graphQLAPI, fetchMode, executor, concurrencyLimit, CircuitBreaker.NONE);
+    }
+
+    CompletionStage<EntitiesResponse> request(GraphQLRequest request, Set<String> selectedFieldNames) {
+        if (!circuitBreaker.tryAcquire()) return failedFuture(circuitBreaker.openException());
+        var acquired = concurrencyLimit.acquire();
+        // a queued request gets its permit from the release of another request: don't send it on that thread
+        if (!acquired.isDone() && executor != null) acquired = acquired.thenApplyAsync(permit -> permit, executor);
+        // only release a permit that was granted, i.e. not if the request was rejected by the limit
+        return acquired
+            .whenComplete((permit, throwable) -> {
+                if (throwable != null) circuitBreaker.ignore();
+            })
+            .thenCompose(permit -> {
+                var start = System.nanoTime();
+                CompletionStage<EntitiesResponse> response;
+                try {
+                    response = send(request, selectedFieldNames);
+                } catch (RuntimeException e) {
+                    response = failedFuture(e);
+                }
+                return response.whenComplete((entities, throwable) -> {
+                    concurrencyLimit.release();
+                    // a response with only errors is a failure, too; partial data is not
+                    circuitBreaker.record(throwable != null || !entities.hasData(), System.nanoTime() - start);
+                });
+            });
+    }
+
+    private CompletionStage<EntitiesResponse> send(GraphQLRequest request, Set<String> selectedFieldNames) {
+        if (graphQLAPI instanceof AsyncGraphQLAPI asyncGraphQLAPI) {
+            if (fetchMode == FetchMode.ASYNC)
+                return asyncGraphQLAPI.requestStreamAsync(request)
+                    .thenApply(body -> EntitiesResponse.read(body, selectedFieldNames));
+            return blocking(() -> EntitiesResponse.read(asyncGraphQLAPI.requestStream(request), selectedFieldNames));
+        }
+        return blocking(() -> EntitiesResponse.of(graphQLAPI.request(request), selectedFieldNames));
+    }
+
+    private <T> CompletionStage<T> blocking(Supplier<T> call) {
+        if (executor == null) {
+            try {
+                return completedFuture(call.get());
+            } catch (RuntimeException e) {
+                return failedFuture(e);
+            }
+        }
+        return supplyAsync(call, executor);
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.graphql.feder;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+
+import java.time.Duration;
+import java.util.function.ToLongFunction;
+
+/**
+ * The MicroProfile Metrics of the <code>_entities</code> requests to one service, tagged with the service name.
+ * Without a {@link MetricRegistry}, e.g. in tests or in a runtime without metrics, nothing is recorded.
+ * <p>
+ * If the service has an {@link EntityCache}, its counts are published as gauges; as every schema reload
+ * creates a new cache, they read the one of the current version.
+ */
+class SubgraphMetrics {
+    static final SubgraphMetrics NONE = new SubgraphMetrics(null, null);
+
+    static SubgraphMetrics of(MetricRegistry registry, String serviceName, boolean entityCache) {
+        if (registry == null) return NONE;
+        var metrics = new SubgraphMetrics(registry, new Tag("service", serviceName));
+        if (entityCache) metrics.registerEntityCache();
+        return metrics;
+    }
+
+    private final MetricRegistry registry;
+    private final Tag service;
+    private final Counter requests;
+    private final Timer duration;
+    private final Histogram entities;
+    private final Histogram responseSize;
+    private volatile EntityCache entityCache;
+
+    private SubgraphMetrics(MetricRegistry registry, Tag service) {
+        this.registry = registry;
+        this.service = service;
+        if (registry == null) {
+            this.requests = null;
+            this.duration = null;
+            this.entities = null;
+            this.responseSize = null;
+        } else {
+            this.requests = registry.counter(metadata("feder.subgraph.requests", "requests sent to the service", MetricUnits.NONE), service);
+            this.duration = registry.timer(metadata("feder.subgraph.duration", "time until the response is decoded", MetricUnits.NANOSECONDS), service);
+            this.entities = registry.histogram(metadata("feder.subgraph.entities", "entities per request", MetricUnits.NONE), service);
+            this.responseSize = registry.histogram(metadata("feder.subgraph.response.size", "size of the response bodies", MetricUnits.BYTES), service);
+        }
+    }
+
+    private void registerEntityCache() {
+        cacheGauge("feder.subgraph.cache.hits", "fields found in the entity cache", EntityCache::hits);
+        cacheGauge("feder.subgraph.cache.misses", "fields not found in the entity cache", EntityCache::misses);
+        cacheGauge("feder.subgraph.cache.evictions", "fields evicted from the full entity cache", EntityCache::evictions);
+        cacheGauge("feder.subgraph.cache.expirations", "fields removed from the entity cache when expired", EntityCache::expirations);
+        cacheGauge("feder.subgraph.cache.size", "fields in the entity cache", EntityCache::size);
+    }
+
+    private void cacheGauge(String name, String description, ToLongFunction<EntityCache> value) {
+        registry.gauge(metadata(name, description, MetricUnits.NONE), this, metrics -> {
+            var cache = metrics.entityCache;
+            return (cache == null) ? 0 : value.applyAsLong(cache);
+        }, service);
+    }
+
+    /** The cache of the service in the current version of the supergraph */
+    void entityCache(EntityCache entityCache) {
+        if (registry != null) this.entityCache = entityCache;
+    }
+
+    void success(long nanos, int entityCount, long bytes) {
+        if (registry == null) return;
+        requests.inc();
+        duration.update(Duration.ofNanos(nanos));
+        entities.update(entityCount);
+        if (bytes >= 0) responseSize.update(bytes);
+    }
+
+    /** @param kind e.g. <code>errors</code>, <code>no-data</code>, or <code>transport</code> */
+    void failure(long nanos, String kind) {
+        if (registry == null) return;
+        requests.inc();
+        duration.update(Duration.ofNanos(nanos));
+        registry.counter(metadata("feder.subgraph.errors", "failed requests by kind", MetricUnits.NONE), service, new Tag("kind", kind)).inc();
+    }
+
+    private static Metadata metadata(String name, String description, String unit) {
+        return Metadata.builder().withName(name).withDescription(description).withUnit(unit).build();
+    }
+}
@@ -0,0 +1,298 @@
+package com.github.graphql.feder;
+
+import graphql.ExecutionInput;
+import graphql.GraphQL;
+import graphql.GraphQLError;
+import graphql.ParseAndValidate;
+import graphql.execution.RawVariables;
+import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.execution.instrumentation.Instrumentation;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.language.NodeUtil;
+import graphql.normalized.ExecutableNormalizedOperationFactory;
+import graphql.schema.GraphQLSchema;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * The current {@link Version} of the merged schema of all services and the {@link GraphQL} engine for it.
+ * <p>
+ * A background poller re-fetches the SDL of every service and compares the hashes.
+ * Only if one of them changed, the schema is merged again and the new version is swapped in atomically;
+ * the services that didn't change are reused, so they keep their caches.
+ * Requests that already took the previous version finish with it.
+ * <p>
+ * The services are fetched and built concurrently, each with a timeout, and then merged in one step.
+ * <p>
+ * If configured, every merged version is written to a {@link SupergraphSnapshot}. On startup, the gateway
+ * restores the last snapshot and serves traffic right away, while it refreshes from the live services in the background.
+ * <p>
+ * Every operation is timed for the {@link SlowOperations}; see {@link TimingInstrumentation};
+ * rejected if it exceeds the {@link QueryLimits}; and planned by the {@link QueryPlanner}.
+ */
+@Slf4j
+@ApplicationScoped
+class Supergraph {
+    @Inject
+    List<FederatedSchemaBuilder> builders;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.document-cache-size", defaultValue = "1000")
+    int documentCacheSize;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.persisted-query-cache-size", defaultValue = "1000")
+    int persistedQueryCacheSize;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.plan-cache-size", defaultValue = "1000")
+    int planCacheSize;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.schema-poll-interval", defaultValue = "30")
+    int pollInterval;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.schema-timeout", defaultValue = "10")
+    int schemaTimeout;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.snapshot-file")
+    Optional<String> snapshotFile = Optional.empty();
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.max-depth", defaultValue = "15")
+    int maxDepth;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.max-aliases", defaultValue = "50")
+    int maxAliases;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.max-fields", defaultValue = "1000")
+    int maxFields;
+
+    @Inject
+    @ConfigProperty(name = "graphql.federated.max-cost", defaultValue = "100")
+    int maxCost;
+
+    /** Not every runtime provides MicroProfile Metrics */
+    @Inject
+    Instance<MetricRegistry> metricRegistry;
+
+    @Inject
+    SlowOperations slowOperations;
+
+    private GatewayMetrics metrics;
+    private final AtomicReference<Version> current = new AtomicReference<>();
+    private ScheduledExecutorService poller;
+
+    /**
+     * One merged schema. The documents in the cache are parsed and validated against this schema,
+     * and the plans are for its services, so they must not be used for another version.
+     */
+    record Version(int number, List<FederatedGraphQLService> services, Map<String, String> sdls, Map<String, String> sdlHashes,
+                   GraphQLSchema schema, DocumentCache documentCache, QueryPlanner planner, GraphQL graphQL) {
+        private FederatedGraphQLService service(String name) {
+            return services.stream().filter(service -> service.getName().equals(name)).findFirst().orElse(null);
+        }
+    }
+
+    @PostConstruct void start() {
+        if (metricRegistry != null && metricRegistry.isResolvable()) metrics = new GatewayMetrics(metricRegistry.get(), limits());
+        var restored = restore();
+        if (!restored) reload();
+        if (restored || pollInterval > 0) {
+            poller = Executors.newSingleThreadScheduledExecutor(daemon("feder-schema-poller"));
+            if (restored) poller.execute(this::poll);
+            if (pollInterval > 0) poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, SECONDS);
+        }
+    }
+
+    /** Merge the first version from the snapshot, if there is one for exactly the configured services */
+    synchronized boolean restore() {
+        if (snapshotFile.isEmpty()) return false;
+        var t0 = System.nanoTime();
+        var sdls = SupergraphSnapshot.read(Path.of(snapshotFile.get()));
+        if (sdls == null) return false;
+        var names = builders.stream().map(builder -> builder.name).collect(toSet());
+        if (!sdls.keySet().equals(names)) {
+            log.info("ignore snapshot {} for services {} instead of {}", snapshotFile.get(), sdls.keySet(), names);
+            return false;
+        }
+        Version version;
+        try {
+            var loaded = loadAll(null, builder -> sdls.get(builder.name));
+            version = update(loaded.stream().map(Loaded::service).toList(), sdls);
+        } catch (RuntimeException e) {
+            log.warn("can't restore snapshot {}; load the live schemas instead", snapshotFile.get(), e);
+            return false;
+        }
+        log.info("restored schema version {} from snapshot {} in {}ms", version.number(), snapshotFile.get(), millis(t0, System.nanoTime()));
+        return true;
+    }
+
+    @PreDestroy void stop() {
+        if (poller != null) poller.shutdownNow();
+    }
+
+    Version current() {return current.get();}
+
+    private void poll() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            log.warn("can't reload the schemas; keep version {}", current().number(), e);
+        }
+    }
+
+    /** Fetch the SDL of all services and merge a new version, if any of them changed */
+    synchronized void reload() {
+        var t0 = System.nanoTime();
+        var previous = current();
+        var loaded = loadAll(previous, FederatedSchemaBuilder::fetchSchema);
+        if (loaded.stream().noneMatch(Loaded::changed)) return;
+
+        var t1 = System.nanoTime();
+        var services = new ArrayList<FederatedGraphQLService>();
+        var sdls = new LinkedHashMap<String, String>();
+        loaded.forEach(service -> {
+            services.add(service.service());
+            sdls.put(service.service().getName(), service.sdl());
+        });
+        var version = update(services, sdls);
+        snapshotFile.ifPresent(file -> SupergraphSnapshot.write(Path.of(file), version));
+        log.info("merged schema version {} in {}ms ({}ms in total) with changes from {}", version.number(),
+            millis(t1, System.nanoTime()), millis(t0, System.nanoTime()),
+            loaded.stream().filter(Loaded::changed).map(service -> service.service().getName()).toList());
+    }
+
+    private List<Loaded> loadAll(Version previous, Function<FederatedSchemaBuilder, String> sdlSource) {
+        var executor = Executors.newFixedThreadPool(Math.max(1, builders.size()), daemon("feder-schema-loader"));
+        try {
+            var futures = builders.stream()
+                .map(builder -> CompletableFuture.supplyAsync(() -> load(builder, previous, sdlSource), executor)
+                    .orTimeout(schemaTimeout, SECONDS))
+                .toList();
+            var loaded = new ArrayList<Loaded>();
+            var failures = new ArrayList<String>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    loaded.add(futures.get(i).join());
+                } catch (CompletionException e) {
+                    var cause = (e.getCause() instanceof TimeoutException) ? "timeout after " + schemaTimeout + "s" : e.getCause().getMessage();
+                    failures.add(builders.get(i).name + ": " + cause);
+                }
+            }
+            if (!failures.isEmpty()) throw new FederationException("can't load the schemas of " + failures);
+            return loaded;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Loaded load(FederatedSchemaBuilder builder, Version previous, Function<FederatedSchemaBuilder, String> sdlSource) {
+        var t0 = System.nanoTime();
+        var sdl = sdlSource.apply(builder);
+        var unchanged = (previous == null) ? null : previous.service(builder.name);
+        if (unchanged != null && hash(sdl).equals(previous.sdlHashes().get(builder.name))) {
+            return new Loaded(unchanged, sdl, false);
+        }
+        var t1 = System.nanoTime();
+        var service = new FederatedGraphQLService(builder, sdl);
+        log.info("loaded schema of {}: fetched in {}ms, built in {}ms", builder.name, millis(t0, t1), millis(t1, System.nanoTime()));
+        return new Loaded(service, sdl, true);
+    }
+
+    private record Loaded(FederatedGraphQLService service, String sdl, boolean changed) {}
+
+    /** Merge the services with their SDLs into a new version and make it the current one */
+    Version update(List<FederatedGraphQLService> services, Map<String, String> sdls) {
+        var sdlHashes = new LinkedHashMap<String, String>();
+        sdls.forEach((name, sdl) -> sdlHashes.put(name, hash(sdl)));
+        var schema = SchemaMerger.merge(services);
+        var documentCache = new DocumentCache(documentCacheSize, persistedQueryCacheSize);
+        var planner = new QueryPlanner(List.copyOf(services), planCacheSize);
+        var instrumentations = new ArrayList<Instrumentation>();
+        if (metrics != null) instrumentations.add(metrics);
+        instrumentations.add(new TimingInstrumentation(slowOperations));
+        instrumentations.add(new QueryLimits(limits(), services, metrics));
+        instrumentations.add(planner);
+        var graphQL = GraphQL.newGraphQL(schema)
+            .preparsedDocumentProvider(documentCache)
+            .instrumentation(new ChainedInstrumentation(instrumentations));
+        var version = current.updateAndGet(previous -> new Version(
+            (previous == null) ? 1 : previous.number() + 1,
+            List.copyOf(services), Map.copyOf(sdls), Map.copyOf(sdlHashes), schema, documentCache, planner, graphQL.build()));
+        services.forEach(FederatedGraphQLService::activate);
+        return version;
+    }
+
+    /**
+     * The {@link QueryPlan} of an operation, without executing it. It's taken from or put into the same caches
+     * as for an execution, so it shows the plan that the operation actually uses.
+     */
+    QueryPlan explain(ExecutionInput executionInput) {
+        var version = current();
+        var entry = version.documentCache().getDocumentAsync(executionInput, input -> {
+            var result = ParseAndValidate.parseAndValidate(version.schema(), input);
+            return result.isFailure() ? new PreparsedDocumentEntry(result.getErrors()) : new PreparsedDocumentEntry(result.getDocument());
+        }).join();
+        if (entry.hasErrors()) throw new FederationException("can't explain invalid operation: "
+                                                             + entry.getErrors().stream().map(GraphQLError::getMessage).toList());
+        // the execution uses the name of the operation, even if the client didn't pass it
+        var operationName = NodeUtil.getOperation(entry.getDocument(), executionInput.getOperationName()).operationDefinition.getName();
+        var variables = executionInput.getVariables();
+        return version.planner().plan(version.schema(), entry.getDocument(), operationName, variables, () ->
+            ExecutableNormalizedOperationFactory.createExecutableNormalizedOperationWithRawVariables(
+                version.schema(), entry.getDocument(), operationName, RawVariables.of(variables)));
+    }
+
+    private QueryLimits.Limits limits() {return new QueryLimits.Limits(maxDepth, maxAliases, maxFields, maxCost);}
+
+    private static long millis(long from, long to) {return (to - from) / 1_000_000;}
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static String hash(String sdl) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(sdl.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new FederationException("no SHA-256", e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.graphql.feder;
+
+import graphql.schema.idl.SchemaPrinter;
+import jakarta.json.Json;
+import jakarta.json.JsonString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A JSON file with the SDL of every service and the merged schema of the last {@link Supergraph.Version}.
+ * Only the SDLs are read back, as we need them to wire the services; the merged schema is for humans.
+ * A snapshot that can't be read or written only gets logged, as the gateway can still work with the live services.
+ */
+@Slf4j
+class SupergraphSnapshot {
+    private static final String SERVICES = "services";
+    private static final String SCHEMA = "schema";
+
+    /** The SDLs by service name, or <code>null</code> if there is no readable snapshot */
+    static Map<String, String> read(Path path) {
+        try (var reader = Json.createReader(Files.newBufferedReader(path, UTF_8))) {
+            var sdls = new LinkedHashMap<String, String>();
+            reader.readObject().getJsonObject(SERVICES).forEach((name, sdl) -> sdls.put(name, ((JsonString) sdl).getString()));
+            return sdls;
+        } catch (NoSuchFileException e) {
+            log.info("no snapshot at {}", path);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            log.warn("can't read snapshot {}", path, e);
+            return null;
+        }
+    }
+
+    /** Replace the snapshot atomically, so a crash never leaves a half-written file */
+    static void write(Path path, Supergraph.Version version) {
+        var services = Json.createObjectBuilder();
+        version.sdls().forEach(services::add);
+        var snapshot = Json.createObjectBuilder()
+            .add(SERVICES, services)
+            .add(SCHEMA, new SchemaPrinter().print(version.schema()))
+            .build();
+        try {
+            var directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            var temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            Files.writeString(temp, snapshot.toString(), UTF_8);
+            Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            log.debug("wrote snapshot of version {} to {}", version.number(), path);
+        } catch (IOException | RuntimeException e) {
+            log.warn("can't write snapshot {}", path, e);
+        }
+    }
+}
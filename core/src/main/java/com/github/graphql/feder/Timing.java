@@ -0,0 +1,51 @@
+package com.github.graphql.feder;
+
+import graphql.GraphQLContext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The timeline of one operation: parsing, validation, the field fetches, and the calls to the services.
+ * It's only recorded when the client sends the {@value #HEADER} header, and then returned
+ * in the <code>timing</code> extension of the response. All offsets and durations are in nanoseconds.
+ */
+class Timing {
+    static final String HEADER = "X-Feder-Timing";
+
+    /** @return the timing of the operation, or <code>null</code> if it's not requested */
+    static Timing of(GraphQLContext context) {return (context == null) ? null : context.get(Timing.class);}
+
+    private final long start = System.nanoTime();
+    private final List<Span> spans = new ArrayList<>();
+
+    /** Add a span from <code>startNanos</code> (from {@link System#nanoTime()}) until now */
+    void record(String kind, String name, long startNanos) {
+        var span = new Span(kind, name, startNanos - start, System.nanoTime() - startNanos);
+        synchronized (spans) {
+            spans.add(span);
+        }
+    }
+
+    Map<String, Object> toMap() {
+        var list = new ArrayList<Object>();
+        synchronized (spans) {
+            spans.forEach(span -> {
+                var map = new LinkedHashMap<String, Object>();
+                map.put("kind", span.kind);
+                map.put("name", span.name);
+                map.put("startOffset", span.startOffset);
+                map.put("duration", span.duration);
+                list.add(map);
+            });
+        }
+        var map = new LinkedHashMap<String, Object>();
+        map.put("duration", System.nanoTime() - start);
+        map.put("spans", list);
+        return map;
+    }
+
+    private record Span(String kind, String name, long startOffset, long duration) {}
+}
@@ -0,0 +1,70 @@
+package com.github.graphql.feder;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.language.Document;
+import graphql.validation.ValidationError;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static graphql.execution.instrumentation.SimpleInstrumentationContext.noOp;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Records the {@link Timing} of an operation, if the client requested it, and returns it in the response extensions.
+ * The duration of every operation goes into the {@link SlowOperations}, if there are any.
+ */
+@RequiredArgsConstructor
+class TimingInstrumentation extends SimplePerformantInstrumentation {
+    private final SlowOperations slowOperations;
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecution(InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        if (slowOperations == null) return noOp();
+        var start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) -> {
+            var timing = Timing.of(parameters.getGraphQLContext());
+            slowOperations.record(parameters.getOperation(), parameters.getQuery(), System.nanoTime() - start,
+                (timing == null) ? null : timing.toMap());
+        });
+    }
+
+    @Override
+    public InstrumentationContext<Document> beginParse(InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        return span(Timing.of(parameters.getGraphQLContext()), "parse", "");
+    }
+
+    @Override
+    public InstrumentationContext<List<ValidationError>> beginValidation(InstrumentationValidationParameters parameters, InstrumentationState state) {
+        return span(Timing.of(parameters.getGraphQLContext()), "validate", "");
+    }
+
+    @Override
+    public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
+        if (parameters.isTrivialDataFetcher()) return noOp();
+        return span(Timing.of(parameters.getExecutionContext().getGraphQLContext()), "fetch",
+            parameters.getExecutionStepInfo().getPath().toString());
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                       InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        var timing = Timing.of(parameters.getGraphQLContext());
+        if (timing == null) return completedFuture(executionResult);
+        return completedFuture(executionResult.transform(builder -> builder.addExtension("timing", timing.toMap())));
+    }
+
+    private static <T> InstrumentationContext<T> span(Timing timing, String kind, String name) {
+        if (timing == null) return noOp();
+        var start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) -> timing.record(kind, name, start));
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.graphql.feder;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static com.github.graphql.feder.CircuitBreaker.State.CLOSED;
+import static com.github.graphql.feder.CircuitBreaker.State.HALF_OPEN;
+import static com.github.graphql.feder.CircuitBreaker.State.OPEN;
+import static org.assertj.core.api.BDDAssertions.then;
+
+class CircuitBreakerTest {
+    private long now;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 4, 50, 50, Duration.ofMillis(100), Duration.ofSeconds(10));
+
+    {
+        circuitBreaker.nanoTime = () -> now;
+    }
+
+    private void call(boolean failed, long millis) {
+        then(circuitBreaker.tryAcquire()).isTrue();
+        circuitBreaker.record(failed, Duration.ofMillis(millis).toNanos());
+    }
+
+    @Test
+    void shouldOpenWhenFailureRateIsReached() {
+        call(false, 10);
+        call(true, 10);
+        call(false, 10);
+        then(circuitBreaker.state()).isEqualTo(CLOSED);
+
+        call(true, 10);
+
+        then(circuitBreaker.state()).isEqualTo(OPEN);
+        then(circuitBreaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void shouldOpenWhenSlowCallRateIsReached() {
+        call(false, 200);
+        call(false, 10);
+        call(false, 10);
+        call(false, 200);
+
+        then(circuitBreaker.state()).isEqualTo(OPEN);
+    }
+
+    @Test
+    void shouldForgetCallsOutsideWindow() {
+        call(true, 10);
+        call(false, 10);
+        call(false, 10);
+        call(false, 10);
+        call(true, 10);
+
+        then(circuitBreaker.state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void shouldCloseAfterSuccessfulTrial() {
+        for (int i = 0; i < 4; i++) call(true, 10);
+        now += Duration.ofSeconds(10).toNanos();
+
+        then(circuitBreaker.tryAcquire()).isTrue();
+        then(circuitBreaker.state()).isEqualTo(HALF_OPEN);
+        then(circuitBreaker.tryAcquire()).as("only one trial").isFalse();
+        circuitBreaker.record(false, 10);
+
+        then(circuitBreaker.state()).isEqualTo(CLOSED);
+        call(true, 10);
+        then(circuitBreaker.state()).as("the window starts anew").isEqualTo(CLOSED);
+    }
+
+    @Test
+    void shouldReopenAfterFailedTrial() {
+        for (int i = 0; i < 4; i++) call(true, 10);
+        now += Duration.ofSeconds(10).toNanos();
+
+        call(true, 10);
+
+        then(circuitBreaker.state()).isEqualTo(OPEN);
+        then(circuitBreaker.tryAcquire()).isFalse();
+    }
+}
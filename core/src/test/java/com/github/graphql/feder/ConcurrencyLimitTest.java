@@ -0,0 +1,56 @@
+package com.github.graphql.feder;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+
+class ConcurrencyLimitTest {
+    @Test
+    void shouldQueueBeyondLimit() {
+        var limit = new ConcurrencyLimit(1);
+
+        var first = limit.acquire();
+        var second = limit.acquire();
+
+        then(first).isDone();
+        then(second).isNotDone();
+        limit.release();
+        then(second).isDone();
+        then(limit.inFlight()).isEqualTo(1);
+        limit.release();
+        then(limit.inFlight()).isZero();
+    }
+
+    @Test
+    void shouldFailFastWithoutQueue() {
+        var limit = new ConcurrencyLimit(1, 0, null);
+
+        limit.acquire();
+        var rejected = limit.acquire();
+
+        then(rejected).isCompletedExceptionally();
+        thenThrownBy(rejected::get).hasCauseInstanceOf(ConcurrencyLimit.LimitExceededException.class)
+            .hasMessageContaining("1 requests in flight and 0 waiting");
+        limit.release();
+        then(limit.inFlight()).isZero();
+    }
+
+    @Test
+    void shouldFailAfterQueueTimeout() {
+        var limit = new ConcurrencyLimit(1, 10, Duration.ofMillis(10));
+
+        limit.acquire();
+        var timedOut = limit.acquire();
+
+        thenThrownBy(timedOut::get).isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(ConcurrencyLimit.LimitExceededException.class)
+            .hasMessageContaining("waited more than 10ms");
+        then(limit.waiting()).isZero();
+        limit.release();
+        then(limit.inFlight()).isZero();
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.graphql.feder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.BDDAssertions.then;
+
+class EntitiesResponseTest {
+    @Test
+    void shouldReadOnlySelectedFields() {
+        var response = read("""
+            {
+              "extensions": {"tracing": {"version": 1, "steps": [1, 2, {"x": [3]}]}},
+              "data": {
+                "_entities": [
+                  {"__typename": "Product", "skipped": {"a": [1, {"b": 2}]}, "name": "Table", "price": {"tag": "12.34EUR", "cents": 1234}},
+                  null,
+                  {"name": "Chair", "stock": 12345678901, "rating": 4.5, "new": true}
+                ],
+                "other": [1, 2]
+              }
+            }
+            """, Set.of("name", "price", "stock", "rating", "new"));
+
+        then(response.hasErrors()).isFalse();
+        then(response.hasData()).isTrue();
+        then(response.entities()).containsExactly(
+            Map.of("name", "Table", "price", Map.of("tag", "12.34EUR", "cents", 1234)),
+            null,
+            Map.of("name", "Chair", "stock", 12345678901L, "rating", new BigDecimal("4.5"), "new", true));
+    }
+
+    @Test
+    void shouldCountResponseBytes() {
+        var json = "{\"data\": {\"_entities\": [{\"name\": \"Tisch\u00e9\"}]}}";
+
+        var response = read(json, Set.of("name"));
+
+        then(response.bytes()).isEqualTo(json.getBytes(UTF_8).length);
+    }
+
+    @Test
+    void shouldReadErrors() {
+        var response = read("""
+            {"errors": [{"message": "boom", "path": ["_entities", 1], "extensions": {"code": "X"}}], "data": null}
+            """, Set.of("name"));
+
+        then(response.hasErrors()).isTrue();
+        then(response.errors()).hasSize(1);
+        then(response.errors().get(0).getMessage()).isEqualTo("boom");
+        then(response.errors().get(0).getPath()).containsExactly("_entities", 1);
+        then(response.errors().get(0).getExtensions()).containsEntry("code", "X");
+        then(response.hasData()).isFalse();
+        then(response.entities()).isNull();
+    }
+
+    private static EntitiesResponse read(String json, Set<String> selectedFieldNames) {
+        return EntitiesResponse.read(new ByteArrayInputStream(json.getBytes(UTF_8)), selectedFieldNames);
+    }
+}
@@ -6,33 +6,54 @@ import graphql.schema.idl.SchemaGenerator;
 import graphql.schema.idl.SchemaParser;
 import graphql.schema.idl.TypeRuntimeWiring.Builder;
 import jakarta.json.Json;
+import org.dataloader.DataLoaderRegistry;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.UnaryOperator;
 
+import static com.github.graphql.feder.GraphQLAPI.JSONB;
 import static com.github.graphql.feder.JsonMapper.map;
 import static graphql.ExecutionInput.newExecutionInput;
 import static graphql.schema.idl.RuntimeWiring.newRuntimeWiring;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.BDDAssertions.entry;
 import static org.assertj.core.api.BDDAssertions.then;
 
 class FederatedGraphQLServiceTest {
     @Test
     void shouldBuildNoQueryWhenNoFieldsMatch() throws Exception {
-        try (var client = new GraphQLAPI() {
+        try (var client = new AsyncGraphQLAPI() {
+            @Override public CompletionStage<GraphQLResponse> requestAsync(GraphQLRequest request) {
+                return CompletableFuture.supplyAsync(() -> request(request));
+            }
+
+            @Override public InputStream requestStream(GraphQLRequest request) {
+                return new ByteArrayInputStream(JSONB.toJson(request(request)).getBytes(UTF_8));
+            }
+
+            @Override public CompletionStage<InputStream> requestStreamAsync(GraphQLRequest request) {
+                return CompletableFuture.supplyAsync(() -> requestStream(request));
+            }
+
             @Override public GraphQLResponse request(GraphQLRequest request) {
                 then(request.query).isEqualTo(
                     "query($representations:[_Any!]! $locale:String) {_entities(representations:$representations)" +
                     "{...on Product{__typename description id name price{__typename tag(locale:$locale) } }}}");
                 then(map(request.variables)).containsOnly(
-                    entry("representations", Map.of(
+                    entry("representations", List.of(Map.of(
                         "__typename", "Product",
-                        "id", "1")),
+                        "id", "1"))),
                     entry("locale", "es-MX"));
                 return GraphQLResponse.builder()
                     .data(Json.createReader(new StringReader("""
@@ -59,7 +80,8 @@ class FederatedGraphQLServiceTest {
             var graphQLSchema = SchemaGenerator.createdMockedSchema(sdl);
             var graphQL = givenGraphQL(sdl, builder -> builder.dataFetcher(
                 "product", new FederatedGraphQLService(
-                    "product-service", graphQLSchema, URI.create("urn:dummy"), client, "id")));
+                    "product-service", graphQLSchema, URI.create("urn:dummy"),
+                    new SubgraphClient(client, FetchMode.ASYNC, ForkJoinPool.commonPool(), new ConcurrencyLimit(1)), Map.of("Product", List.of(FieldSet.parse("id"))), null)));
 
             var result = graphQL.execute(newExecutionInput()
                 .query("""
@@ -72,6 +94,7 @@ class FederatedGraphQLServiceTest {
                     }
                     """)
                 .variables(Map.of("id", "1"))
+                .dataLoaderRegistry(new DataLoaderRegistry())
                 .build());
 
             then(result.getErrors()).isEmpty();
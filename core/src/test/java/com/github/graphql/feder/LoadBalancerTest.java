@@ -0,0 +1,199 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
+import static com.github.graphql.feder.GraphQLAPI.GraphQLResponse;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.BDDAssertions.then;
+
+class LoadBalancerTest {
+    private static final GraphQLRequest REQUEST = GraphQLRequest.builder().query("{_entities}").build();
+    private static final LoadBalancer.Ejection EJECTION = new LoadBalancer.Ejection(2, Duration.ofMillis(100), Duration.ofSeconds(30));
+
+    private long now;
+    private final List<StubInstance> stubs = new ArrayList<>();
+
+    private LoadBalancer loadBalancer(LoadBalancer.Strategy strategy, int instances) {
+        return loadBalancer(strategy, instances, LoadBalancer.Hedging.NONE);
+    }
+
+    private LoadBalancer loadBalancer(LoadBalancer.Strategy strategy, int instances, LoadBalancer.Hedging hedging) {
+        var uris = new ArrayList<URI>();
+        for (int i = 0; i < instances; i++) uris.add(URI.create("urn:instance:" + i));
+        var loadBalancer = new LoadBalancer("test", strategy, EJECTION, hedging, uris, uri -> {
+            var stub = new StubInstance();
+            stubs.add(stub);
+            return stub;
+        });
+        loadBalancer.nanoTime = () -> now;
+        return loadBalancer;
+    }
+
+    @Test
+    void shouldSendToLeastOutstanding() {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.LEAST_OUTSTANDING, 3);
+
+        for (int i = 0; i < 6; i++) loadBalancer.requestAsync(REQUEST);
+        stubs.get(1).respond(2, 0);
+        loadBalancer.requestAsync(REQUEST);
+
+        then(stubs).extracting(stub -> stub.pending.size()).containsExactly(2, 1, 2);
+        then(loadBalancer.instances()).extracting(LoadBalancer.Instance::outstanding).containsExactly(2, 1, 2);
+    }
+
+    @Test
+    void shouldSpreadWithPowerOfTwoChoices() {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.P2C, 4);
+
+        for (int i = 0; i < 400; i++) loadBalancer.requestAsync(REQUEST);
+
+        // two random instances of which the one with fewer outstanding requests is chosen keep them close together
+        then(stubs).allSatisfy(stub -> then(stub.pending.size()).isBetween(90, 110));
+    }
+
+    @Test
+    void shouldEjectAfterConsecutiveFailuresAndReturnLater() {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.LEAST_OUTSTANDING, 2);
+        stubs.get(0).failing = true;
+
+        for (int i = 0; i < 4; i++) loadBalancer.requestAsync(REQUEST);
+        stubs.get(1).respond(stubs.get(1).pending.size(), 0);
+        for (int i = 0; i < 4; i++) loadBalancer.requestAsync(REQUEST);
+
+        then(stubs.get(0).calls).isEqualTo(2);
+        then(stubs.get(1).calls).isEqualTo(6);
+
+        now += Duration.ofSeconds(30).toNanos();
+        stubs.get(0).failing = false;
+        loadBalancer.requestAsync(REQUEST);
+
+        then(stubs.get(0).calls).isEqualTo(3);
+    }
+
+    @Test
+    void shouldEjectSlowInstance() {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.LEAST_OUTSTANDING, 2);
+        for (int i = 0; i < 5; i++) {
+            loadBalancer.requestAsync(REQUEST);
+            loadBalancer.requestAsync(REQUEST);
+            stubs.get(0).respond(1, 200);
+            stubs.get(1).respond(1, 10);
+        }
+
+        for (int i = 0; i < 4; i++) loadBalancer.requestAsync(REQUEST);
+
+        then(stubs.get(0).calls).isEqualTo(5);
+        then(stubs.get(1).calls).isEqualTo(9);
+    }
+
+    @Test
+    void shouldNotEjectLastHealthyInstance() {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.P2C, 2);
+        stubs.forEach(stub -> stub.failing = true);
+
+        for (int i = 0; i < 10; i++) loadBalancer.requestAsync(REQUEST);
+
+        then(stubs.get(0).calls + stubs.get(1).calls).isEqualTo(10);
+        then(stubs).extracting(stub -> stub.calls).allSatisfy(calls -> then(calls).isGreaterThanOrEqualTo(2));
+    }
+
+    @Test
+    void shouldHedgeSlowRequest() throws Exception {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.LEAST_OUTSTANDING, 2, new LoadBalancer.Hedging(Duration.ofMillis(10), 0, 100));
+        stubs.get(1).immediate = true;
+
+        var response = loadBalancer.requestAsync(REQUEST).toCompletableFuture().get(1, SECONDS);
+
+        then(response.getData()).isNotNull();
+        then(stubs.get(1).calls).isEqualTo(1);
+        then(loadBalancer.instances()).extracting(LoadBalancer.Instance::outstanding)
+            .as("the slow request is still in flight").containsExactly(1, 0);
+
+        stubs.get(0).respond(1, 0);
+
+        then(loadBalancer.instances()).extracting(LoadBalancer.Instance::outstanding).containsExactly(0, 0);
+    }
+
+    @Test
+    void shouldCloseStreamOfLostHedge() throws Exception {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.LEAST_OUTSTANDING, 2, new LoadBalancer.Hedging(Duration.ofMillis(10), 0, 100));
+        stubs.get(1).immediate = true;
+
+        var winner = loadBalancer.requestStreamAsync(REQUEST).toCompletableFuture().get(1, SECONDS);
+        var loser = new StubStream();
+        stubs.get(0).pendingStreams.remove(0).complete(loser);
+
+        then(winner).isInstanceOf(StubStream.class);
+        then(((StubStream) winner).closed).as("the caller closes the winner").isFalse();
+        then(loser.closed).isTrue();
+        then(loadBalancer.instances()).extracting(LoadBalancer.Instance::outstanding).containsExactly(0, 0);
+    }
+
+    @Test
+    void shouldNotHedgeBeyondBudget() throws Exception {
+        var loadBalancer = loadBalancer(LoadBalancer.Strategy.LEAST_OUTSTANDING, 2, new LoadBalancer.Hedging(Duration.ofMillis(10), 0, 50));
+        stubs.get(1).immediate = true;
+
+        var response = loadBalancer.requestAsync(REQUEST);
+        Thread.sleep(100);
+
+        then(response).isNotDone();
+        then(stubs.get(1).calls).isZero();
+    }
+
+    private class StubInstance implements AsyncGraphQLAPI {
+        final List<CompletableFuture<GraphQLResponse>> pending = new ArrayList<>();
+        final List<CompletableFuture<InputStream>> pendingStreams = new ArrayList<>();
+        boolean failing;
+        boolean immediate;
+        int calls;
+
+        void respond(int count, long millis) {
+            now += Duration.ofMillis(millis).toNanos();
+            for (int i = 0; i < count; i++) pending.remove(0).complete(GraphQLResponse.builder().build());
+        }
+
+        @Override public CompletionStage<GraphQLResponse> requestAsync(GraphQLRequest request) {
+            calls++;
+            if (failing) return CompletableFuture.failedFuture(new RuntimeException("instance down"));
+            if (immediate) return CompletableFuture.completedFuture(GraphQLResponse.builder().data(Json.createObjectBuilder().build()).build());
+            var response = new CompletableFuture<GraphQLResponse>();
+            pending.add(response);
+            return response;
+        }
+
+        @Override public InputStream requestStream(GraphQLRequest request) {throw new UnsupportedOperationException();}
+
+        @Override public CompletionStage<InputStream> requestStreamAsync(GraphQLRequest request) {
+            calls++;
+            if (immediate) return CompletableFuture.completedFuture(new StubStream());
+            var response = new CompletableFuture<InputStream>();
+            pendingStreams.add(response);
+            return response;
+        }
+
+        @Override public GraphQLResponse request(GraphQLRequest request) {throw new UnsupportedOperationException();}
+
+        @Override public String schema() {throw new UnsupportedOperationException();}
+    }
+
+    private static class StubStream extends ByteArrayInputStream {
+        boolean closed;
+
+        StubStream() {super("{\"data\":{}}".getBytes(UTF_8));}
+
+        @Override public void close() {closed = true;}
+    }
+}
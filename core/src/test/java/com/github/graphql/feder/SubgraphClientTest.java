@@ -0,0 +1,64 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.BDDAssertions.then;
+
+class SubgraphClientTest {
+    private static final GraphQLRequest REQUEST = GraphQLRequest.builder().query("{_entities}").build();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final StubService service = new StubService();
+
+    @AfterEach void shutdown() {executor.shutdownNow();}
+
+    @Test
+    void shouldNotSendQueuedRequestOnReleasingThread() throws Exception {
+        var client = new SubgraphClient(service, FetchMode.ASYNC, executor, new ConcurrencyLimit(1));
+        var first = client.request(REQUEST, Set.of()).toCompletableFuture();
+        var queued = client.request(REQUEST, Set.of()).toCompletableFuture();
+        then(service.callers).hasSize(1);
+
+        service.first.complete(body()); // releases the permit on this thread
+
+        first.get(1, SECONDS);
+        queued.get(1, SECONDS);
+        then(service.callers).hasSize(2);
+        then(service.callers.get(1)).isNotSameAs(Thread.currentThread());
+    }
+
+    private static InputStream body() {return new ByteArrayInputStream("{\"data\":{\"_entities\":[]}}".getBytes(UTF_8));}
+
+    /** The first request waits for the test to complete it, the others complete right away */
+    private static class StubService implements AsyncGraphQLAPI {
+        final CompletableFuture<InputStream> first = new CompletableFuture<>();
+        final List<Thread> callers = new CopyOnWriteArrayList<>();
+
+        @Override public CompletionStage<InputStream> requestStreamAsync(GraphQLRequest request) {
+            callers.add(Thread.currentThread());
+            return (callers.size() == 1) ? first : CompletableFuture.completedFuture(body());
+        }
+
+        @Override public CompletionStage<GraphQLResponse> requestAsync(GraphQLRequest request) {throw new UnsupportedOperationException();}
+
+        @Override public InputStream requestStream(GraphQLRequest request) {throw new UnsupportedOperationException();}
+
+        @Override public GraphQLResponse request(GraphQLRequest request) {throw new UnsupportedOperationException();}
+
+        @Override public String schema() {throw new UnsupportedOperationException();}
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import jakarta.json.stream.JsonGeneratorFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the {@link GraphQLGateway} in-process on the JDK {@link HttpServer}, without a Jakarta EE container,
+ * so the load test measures the gateway and not the container. The fetch mode and threads are set like
+ * <code>graphql.federated.fetch-mode</code> and <code>graphql.federated.fetch-threads</code>.
+ */
+@Slf4j
+class GatewayServer {
+    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
+
+    private final GraphQLGateway gateway = new GraphQLGateway();
+    private final ExecutorService fetchExecutor;
+    private final HttpServer server;
+
+    GatewayServer(List<URI> serviceUris, List<String> serviceNames, FetchMode fetchMode, int fetchThreads, int threads) {
+        this.fetchExecutor = fetchMode.executor(fetchThreads);
+        var supergraph = new Supergraph();
+        supergraph.documentCacheSize = 1000;
+        supergraph.persistedQueryCacheSize = 1000;
+        supergraph.planCacheSize = 1000;
+        supergraph.schemaTimeout = 10;
+        var httpClient = HttpClient.newBuilder().executor(Executors.newCachedThreadPool(LoadTest.daemon("gateway-client"))).build();
+        supergraph.builders = IntStream.range(0, serviceUris.size()).mapToObj(i -> {
+            var api = new HttpGraphQLAPI(httpClient, serviceUris.get(i));
+            var client = new SubgraphClient(api, fetchMode, fetchExecutor, new ConcurrencyLimit(0));
+            return new FederatedSchemaBuilder(serviceNames.get(i), serviceUris.get(i), api, client);
+        }).toList();
+        supergraph.reload();
+        gateway.supergraph = supergraph;
+
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(0), 1000);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.createContext("/graphql", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(threads, LoadTest.daemon("gateway")));
+        server.start();
+        log.info("started gateway at {} with fetch mode {}", uri(), fetchMode);
+    }
+
+    URI uri() {return URI.create("http://localhost:" + server.getAddress().getPort());}
+
+    void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+        if (fetchExecutor != null) fetchExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonObject body;
+            try (var reader = Json.createReader(exchange.getRequestBody())) {
+                body = reader.readObject();
+            }
+            var request = GraphQLRequest.builder()
+                .query(body.getString("query"))
+                .variables(body.get("variables") instanceof JsonObject variables ? variables : null)
+                .operationName(body.get("operationName") instanceof JsonString operationName ? operationName.getString() : null)
+                .build();
+            var response = (GatewayResponse) gateway.request(request);
+
+            var out = new ByteArrayOutputStream();
+            try (var generator = GENERATOR_FACTORY.createGenerator(out)) {
+                GatewayResponseWriter.write(response, generator);
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, out.size());
+            out.writeTo(exchange.getResponseBody());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletionStage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A client for a federated service with the JDK {@link HttpClient}, so the load test doesn't need
+ * a MicroProfile REST Client implementation. Like the REST client, it supports all {@link FetchMode}s.
+ */
+@RequiredArgsConstructor
+class HttpGraphQLAPI implements AsyncGraphQLAPI {
+    private final HttpClient client;
+    private final URI uri;
+
+    @Override public GraphQLResponse request(GraphQLRequest request) {
+        try (var body = requestStream(request)) {
+            return response(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override public CompletionStage<GraphQLResponse> requestAsync(GraphQLRequest request) {
+        return requestStreamAsync(request).thenApply(HttpGraphQLAPI::response);
+    }
+
+    @Override public InputStream requestStream(GraphQLRequest request) {
+        try {
+            return body(client.send(httpRequest(request), HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FederationException("interrupted", e);
+        }
+    }
+
+    @Override public CompletionStage<InputStream> requestStreamAsync(GraphQLRequest request) {
+        return client.sendAsync(httpRequest(request), HttpResponse.BodyHandlers.ofInputStream()).thenApply(HttpGraphQLAPI::body);
+    }
+
+    /** The stub servers don't serve the <code>/schema.graphql</code>, so ask for the SDL like the gateway does */
+    @Override public String schema() {
+        var response = request(GraphQLRequest.builder().query("{_service{sdl}}").build());
+        if (response.hasErrors()) throw new FederationException("errors from service " + uri + ": " + response.getErrors());
+        if (response.getData() == null || response.getData().getJsonObject("_service") == null)
+            throw new FederationException("no _service from " + uri);
+        return response.getData().getJsonObject("_service").getString("sdl");
+    }
+
+    private HttpRequest httpRequest(GraphQLRequest request) {
+        var body = Json.createObjectBuilder().add("query", request.getQuery());
+        request.variables().ifPresent(variables -> body.add("variables", variables));
+        request.operationName().ifPresent(operationName -> body.add("operationName", operationName));
+        return HttpRequest.newBuilder(uri.resolve("/graphql"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body.build().toString(), UTF_8))
+            .build();
+    }
+
+    private static InputStream body(HttpResponse<InputStream> response) {
+        if (response.statusCode() != 200) {
+            try (var body = response.body()) {
+                throw new FederationException("status " + response.statusCode() + " from " + response.uri());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return response.body();
+    }
+
+    private static GraphQLResponse response(InputStream body) {
+        try (var reader = Json.createReader(body)) {
+            var json = reader.readObject();
+            var response = GraphQLResponse.builder();
+            if (json.get("data") instanceof JsonObject data) response.data(data);
+            if (json.containsKey("errors")) response.errors(json.getJsonArray("errors").getValuesAs(JsonObject.class).stream()
+                .<GraphQLError>map(error -> GraphQLError.builder().message(error.getString("message", null)).build())
+                .toList());
+            return response.build();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.graphql.feder;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies in microseconds, exact below 1ms and within 0.2% above,
+ * so the load generators can record every request without coordinating.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + 54 * HALF);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    void record(long nanos, boolean failed) {
+        var micros = Math.max(0, nanos / 1_000);
+        counts.incrementAndGet(index(micros));
+        total.increment();
+        if (failed) errors.increment();
+    }
+
+    long count() {return total.sum();}
+
+    long errors() {return errors.sum();}
+
+    /** @return the latency in microseconds that <code>quantile</code> of the requests didn't exceed */
+    long percentile(double quantile) {
+        var threshold = (long) Math.ceil(quantile * count());
+        long sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            sum += counts.get(i);
+            if (sum >= Math.max(1, threshold)) return value(i);
+        }
+        return 0;
+    }
+
+    private static int index(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        var shift = (63 - Long.numberOfLeadingZeros(micros)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((micros >> shift) - HALF);
+    }
+
+    /** The highest value in the bucket */
+    private static long value(int index) {
+        if (index < SUB_BUCKETS) return index;
+        var shift = (index - SUB_BUCKETS) / HALF + 1;
+        var sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1L) << shift) - 1;
+    }
+}
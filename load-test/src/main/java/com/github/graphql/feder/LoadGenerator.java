@@ -0,0 +1,109 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Sends a GraphQL query to the gateway for a warmup and then a measured duration.
+ * <ul>
+ * <li>The <em>closed</em> loop runs a fixed number of clients that each send the next request when the previous one returned,
+ * i.e. it finds the maximum throughput, but a slow gateway also slows down the load.</li>
+ * <li>The <em>open</em> loop sends requests at a fixed rate, no matter how many are still in flight, like independent users do.
+ * The latency is measured from the time the request should have been sent, so a stalled gateway
+ * isn't hidden by sending less (the so-called coordinated omission).</li>
+ * </ul>
+ */
+class LoadGenerator {
+    record Result(String name, long requests, long errors, double seconds, long p50, long p99, long p999, long max) {
+        double throughput() {return requests / seconds;}
+
+        @Override public String toString() {
+            return String.format("%-30s %9d requests %7d errors %10.1f req/s   p50 %8.2fms   p99 %8.2fms   p999 %8.2fms   max %8.2fms",
+                name, requests, errors, throughput(), p50 / 1000.0, p99 / 1000.0, p999 / 1000.0, max / 1000.0);
+        }
+    }
+
+    private final HttpClient client = HttpClient.newBuilder().executor(Executors.newCachedThreadPool(LoadTest.daemon("load-client"))).build();
+    private final HttpRequest request;
+
+    LoadGenerator(URI gateway, String query) {
+        this.request = HttpRequest.newBuilder(gateway.resolve("/graphql"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(Json.createObjectBuilder().add("query", query).build().toString(), UTF_8))
+            .build();
+    }
+
+    Result closed(String name, int clients, Duration warmup, Duration duration) throws InterruptedException {
+        var histogram = new LatencyHistogram();
+        var measureFrom = System.nanoTime() + warmup.toNanos();
+        var stopAt = measureFrom + duration.toNanos();
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < clients; i++) {
+            var thread = new Thread(() -> {
+                while (System.nanoTime() < stopAt) {
+                    var start = System.nanoTime();
+                    var failed = !send();
+                    if (start >= measureFrom) histogram.record(System.nanoTime() - start, failed);
+                }
+            }, "closed-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) thread.join();
+        return result(name + " closed x" + clients, histogram, measureFrom);
+    }
+
+    Result open(String name, int rate, Duration warmup, Duration duration) throws InterruptedException {
+        var intervalNanos = 1_000_000_000L / rate;
+        var warmupCount = warmup.toNanos() / intervalNanos;
+        var count = warmupCount + duration.toNanos() / intervalNanos;
+        var measured = new LatencyHistogram();
+        var inFlight = new ArrayList<CompletableFuture<?>>();
+        var start = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            var intended = start + i * intervalNanos;
+            var wait = intended - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            var record = i >= warmupCount;
+            var future = client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, throwable) -> {
+                    if (record) measured.record(System.nanoTime() - intended, !ok(response, throwable));
+                    return null;
+                });
+            if (record) inFlight.add(future);
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+        return result(name + " open @" + rate + "/s", measured, start + warmupCount * intervalNanos);
+    }
+
+    private boolean send() {
+        try {
+            return ok(client.send(request, HttpResponse.BodyHandlers.ofString()), null);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** A partial result with errors counts as failed, too */
+    private static boolean ok(HttpResponse<String> response, Throwable throwable) {
+        return throwable == null && response.statusCode() == 200 && !response.body().contains("\"errors\"");
+    }
+
+    private static Result result(String name, LatencyHistogram histogram, long startNanos) {
+        var seconds = (System.nanoTime() - startNanos) / 1e9;
+        return new Result(name, histogram.count(), histogram.errors(), seconds,
+            histogram.percentile(0.5), histogram.percentile(0.99), histogram.percentile(0.999), histogram.percentile(1.0));
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.graphql.feder;
+
+import jakarta.json.Json;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Starts stand-ins for the demo services and drives the gateway with a closed and/or an open loop load,
+ * for each fetch mode, and prints the throughput and latency percentiles. All options are <code>--name=value</code>;
+ * see the README for the list.
+ */
+public class LoadTest {
+    private static final String DEFAULT_QUERY = "{product(id:\"1\"){name description price{tag} reviews{text stars}}}";
+
+    public static void main(String... args) throws Exception {
+        // the JDK HTTP server writes the headers and the body separately, so Nagle would delay every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        var options = new Options(args);
+        var stubs = new ArrayList<StubSubgraphServer>();
+        var basePort = options.integer("stub-port", 0);
+        if (options.bool("stubs", true)) {
+            for (int i = 0; i < StubSubgraphServer.NAMES.size(); i++) {
+                var name = StubSubgraphServer.NAMES.get(i);
+                stubs.add(StubSubgraphServer.builder()
+                    .name(name)
+                    .port((basePort == 0) ? 0 : basePort + i)
+                    .latency(options.millis("latency." + name, options.millis("latency", 20)))
+                    .jitter(options.millis("jitter." + name, options.millis("jitter", 5)))
+                    .errorRate(options.decimal("error-rate." + name, options.decimal("error-rate", 0)))
+                    .entity(StubSubgraphServer.demoEntities(name))
+                    .build().start());
+            }
+        }
+
+        var query = options.string("query", DEFAULT_QUERY);
+        var results = new ArrayList<LoadGenerator.Result>();
+        try {
+            if (options.has("gateway")) {
+                // an external gateway, e.g. the war configured with the stub ports
+                results.addAll(run(options, "external", URI.create(options.string("gateway", null)), query));
+            } else {
+                for (var fetchMode : options.list("fetch-modes", "ASYNC,PLATFORM")) {
+                    var gateway = new GatewayServer(stubs.stream().map(StubSubgraphServer::uri).toList(), StubSubgraphServer.NAMES,
+                        FetchMode.of(fetchMode), options.integer("fetch-threads", 32), options.integer("gateway-threads", 200));
+                    try {
+                        results.addAll(run(options, fetchMode, gateway.uri(), query));
+                    } finally {
+                        gateway.stop();
+                    }
+                }
+            }
+        } finally {
+            stubs.forEach(StubSubgraphServer::stop);
+        }
+
+        System.out.println();
+        results.forEach(System.out::println);
+        if (options.has("json")) writeJson(Path.of(options.string("json", null)), results);
+    }
+
+    private static List<LoadGenerator.Result> run(Options options, String name, URI gateway, String query) throws InterruptedException {
+        var generator = new LoadGenerator(gateway, query);
+        var warmup = Duration.ofSeconds(options.integer("warmup", 5));
+        var duration = Duration.ofSeconds(options.integer("duration", 30));
+        var results = new ArrayList<LoadGenerator.Result>();
+        for (var load : options.list("load", "closed,open")) {
+            var result = switch (load) {
+                case "closed" -> generator.closed(name, options.integer("clients", 32), warmup, duration);
+                case "open" -> generator.open(name, options.integer("rate", 500), warmup, duration);
+                default -> throw new IllegalArgumentException("unknown load " + load + "; expected closed or open");
+            };
+            System.out.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static void writeJson(Path path, List<LoadGenerator.Result> results) throws IOException {
+        var array = Json.createArrayBuilder();
+        results.forEach(result -> array.add(Json.createObjectBuilder()
+            .add("name", result.name())
+            .add("requests", result.requests())
+            .add("errors", result.errors())
+            .add("throughput", result.throughput())
+            .add("p50Micros", result.p50())
+            .add("p99Micros", result.p99())
+            .add("p999Micros", result.p999())
+            .add("maxMicros", result.max())));
+        Files.writeString(path, array.build().toString(), UTF_8);
+    }
+
+    static ThreadFactory daemon(String name) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class Options {
+        private final Map<String, String> values = new LinkedHashMap<>();
+
+        private Options(String... args) {
+            for (var arg : args) {
+                if (!arg.startsWith("--")) throw new IllegalArgumentException("expected --name=value but got " + arg);
+                var split = arg.substring(2).split("=", 2);
+                values.put(split[0], (split.length == 1) ? "true" : split[1]);
+            }
+        }
+
+        boolean has(String name) {return values.containsKey(name);}
+
+        String string(String name, String defaultValue) {return values.getOrDefault(name, defaultValue);}
+
+        int integer(String name, int defaultValue) {return has(name) ? Integer.parseInt(values.get(name)) : defaultValue;}
+
+        double decimal(String name, double defaultValue) {return has(name) ? Double.parseDouble(values.get(name)) : defaultValue;}
+
+        boolean bool(String name, boolean defaultValue) {return has(name) ? Boolean.parseBoolean(values.get(name)) : defaultValue;}
+
+        Duration millis(String name, long defaultValue) {return Duration.ofMillis(has(name) ? Long.parseLong(values.get(name)) : defaultValue);}
+
+        Duration millis(String name, Duration defaultValue) {return has(name) ? Duration.ofMillis(Long.parseLong(values.get(name))) : defaultValue;}
+
+        List<String> list(String name, String defaultValue) {return Arrays.asList(string(name, defaultValue).split(","));}
+    }
+}
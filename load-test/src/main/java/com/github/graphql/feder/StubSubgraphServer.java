@@ -0,0 +1,130 @@
+package com.github.graphql.feder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonString;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A stand-in for one of the demo services: it serves the same SDL on <code>{_service{sdl}}</code> and
+ * answers <code>_entities</code> requests with all fields of the entity for each representation.
+ * Each <code>_entities</code> response is delayed by the latency plus or minus a random jitter,
+ * and fails with a <code>500</code> at the configured error rate.
+ */
+@Slf4j
+@Builder
+class StubSubgraphServer {
+    private final String name;
+    private final int port;
+    private final Duration latency;
+    private final Duration jitter;
+    private final double errorRate;
+    private final Function<String, Map<String, Object>> entity;
+
+    private HttpServer server;
+
+    StubSubgraphServer start() {
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 1000);
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't start stub " + name + " on port " + port, e);
+        }
+        server.createContext("/graphql", this::handle);
+        // sleeping is the simplest way to simulate latency; every request in flight needs its own thread
+        server.setExecutor(Executors.newCachedThreadPool(LoadTest.daemon("stub-" + name)));
+        server.start();
+        log.info("started stub {} at {} with latency {}±{} and error rate {}", name, uri(), latency, jitter, errorRate);
+        return this;
+    }
+
+    void stop() {server.stop(0);}
+
+    URI uri() {return URI.create("http://localhost:" + server.getAddress().getPort());}
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            var request = Json.createReader(body).readObject();
+            var query = request.getString("query", "");
+            JsonObject data;
+            if (query.startsWith("{_service")) {
+                data = Json.createObjectBuilder().add("_service", Json.createObjectBuilder().add("sdl", sdl(name))).build();
+            } else {
+                delay();
+                if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                data = Json.createObjectBuilder().add("_entities", entities(request.getJsonObject("variables"))).build();
+            }
+            var response = Json.createObjectBuilder().add("data", data).build().toString().getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        }
+    }
+
+    private void delay() {
+        var millis = latency.toMillis();
+        var jitterMillis = jitter.toMillis();
+        if (jitterMillis > 0) millis += ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1);
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private JsonArray entities(JsonObject variables) {
+        var entities = Json.createArrayBuilder();
+        variables.getJsonArray("representations").getValuesAs(JsonObject.class).forEach(representation -> {
+            var id = ((JsonString) representation.get("id")).getString();
+            entities.add(Json.createObjectBuilder(entity.apply(id)).add("__typename", representation.getString("__typename")));
+        });
+        return entities.build();
+    }
+
+    static String sdl(String name) {
+        try (var stream = StubSubgraphServer.class.getResourceAsStream("/stubs/" + name + ".graphql")) {
+            if (stream == null) throw new IllegalArgumentException("no stub for " + name);
+            return new String(stream.readAllBytes(), UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** The demo services with their entities */
+    static final List<String> NAMES = List.of("product", "price", "review");
+
+    static Function<String, Map<String, Object>> demoEntities(String name) {
+        return switch (name) {
+            case "product" -> id -> Map.of("id", id, "name", "Table " + id, "description", "A nice table with four legs");
+            case "price" -> id -> Map.of("id", id, "price", Map.of(
+                "currency", Map.of("code", "EUR", "symbol", "€", "fractionDigits", 2),
+                "parts", List.of(399, 99),
+                "tag", "399.99 €"));
+            case "review" -> id -> Map.of("id", id, "reviews", List.of(
+                Map.of("text", "awesome", "stars", "FIVE", "user", Map.of("slug", "t1")),
+                Map.of("text", "okay", "stars", "THREE", "user", Map.of("slug", "t2"))));
+            default -> throw new IllegalArgumentException("no stub for " + name);
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.graphql.feder;
+
+import com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+
+import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/** The query plan of an operation, i.e. which services it calls for which fields and in which order, without executing it */
+@ApplicationScoped
+@Path("/graphql/explain")
+public class ExplainResource {
+    @Inject
+    Supergraph supergraph;
+
+    @POST
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    public JsonObject explain(GraphQLRequest request) {
+        return JsonMapper.toJson(supergraph.explain(GraphQLGateway.executionInput(request).build()).toMap());
+    }
+}
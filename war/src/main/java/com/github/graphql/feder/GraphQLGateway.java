@@ -2,42 +2,47 @@ package com.github.graphql.feder;
 
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
-import graphql.GraphQL;
-import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.SchemaPrinter;
-import jakarta.enterprise.context.Dependent;
+import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.json.Json;
-import jakarta.json.JsonObject;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.dataloader.DataLoaderRegistry;
 
 import java.util.Map;
 
-import static com.github.graphql.feder.GatewayExceptionMapper.map;
+import static graphql.execution.preparsed.persisted.PersistedQuerySupport.PERSISTED_QUERY_MARKER;
 
-@Dependent
+@ApplicationScoped
 public class GraphQLGateway implements GraphQLAPI {
     @Inject
-    GraphQLSchema schema;
+    Supergraph supergraph;
+
+    @Context
+    HttpHeaders headers;
 
     @Override public String schema() {
-        return new SchemaPrinter().print(schema);
+        return new SchemaPrinter().print(supergraph.current().schema());
     }
 
     @Override public GraphQLResponse request(GraphQLRequest request) {
-        var graphQL = GraphQL.newGraphQL(schema).build();
-        var executionInput = ExecutionInput.newExecutionInput()
-            .query(request.getQuery());
-        request.variables().map(JsonMapper::map).ifPresent(executionInput::variables);
-        request.operationName().ifPresent(executionInput::operationName);
-        ExecutionResult executionResult = graphQL.execute(executionInput);
+        var executionInput = executionInput(request);
+        if (headers != null && headers.getHeaderString(Timing.HEADER) != null)
+            executionInput.graphQLContext(Map.of(Timing.class, new Timing()));
+        // the engine of the version we started with, even if a new version is swapped in meanwhile
+        ExecutionResult executionResult = supergraph.current().graphQL().execute(executionInput);
 
-        return GraphQLResponse.builder()
-            .data(json(executionResult.getData()))
-            .errors(map(executionResult.getErrors()))
-            .build();
+        return new GatewayResponse(executionResult);
     }
 
-    private static JsonObject json(Map<String, Object> data) {
-        return (data == null) ? null : Json.createObjectBuilder(data).build();
+    static ExecutionInput.Builder executionInput(GraphQLRequest request) {
+        var executionInput = ExecutionInput.newExecutionInput()
+            // a persisted query may come without the query text
+            .query((request.getQuery() == null) ? PERSISTED_QUERY_MARKER : request.getQuery())
+            .dataLoaderRegistry(new DataLoaderRegistry());
+        request.variables().map(JsonMapper::map).ifPresent(executionInput::variables);
+        request.operationName().ifPresent(executionInput::operationName);
+        request.extensions().map(JsonMapper::map).ifPresent(executionInput::extensions);
+        return executionInput;
     }
 }
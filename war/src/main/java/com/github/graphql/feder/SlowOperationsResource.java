@@ -0,0 +1,35 @@
+package com.github.graphql.feder;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+
+import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/** The slowest operations, slowest first, with their timing if the client requested it */
+@ApplicationScoped
+@Path("/graphql/slow-operations")
+public class SlowOperationsResource {
+    @Inject
+    SlowOperations slowOperations;
+
+    @GET
+    @Produces(APPLICATION_JSON)
+    public JsonArray get() {
+        var array = Json.createArrayBuilder();
+        slowOperations.list().forEach(entry -> {
+            var object = Json.createObjectBuilder()
+                .add("durationMillis", entry.durationNanos() / 1_000_000.0)
+                .add("at", entry.at().toString());
+            if (entry.operationName() != null) object.add("operationName", entry.operationName());
+            if (entry.query() != null) object.add("query", entry.query());
+            if (entry.timing() != null) object.add("timing", JsonMapper.toJson(entry.timing()));
+            array.add(object);
+        });
+        return array.build();
+    }
+}
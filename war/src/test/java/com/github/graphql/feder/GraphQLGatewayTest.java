@@ -1,22 +1,40 @@
 package com.github.graphql.feder;
 
+import com.github.graphql.feder.GraphQLAPI.GraphQLError;
 import com.github.graphql.feder.GraphQLAPI.GraphQLRequest;
 import com.github.graphql.feder.GraphQLAPI.GraphQLResponse;
 import com.github.t1.wunderbar.junit.consumer.Service;
 import com.github.t1.wunderbar.junit.consumer.WunderBarApiConsumer;
+import graphql.schema.idl.SchemaPrinter;
 import jakarta.json.Json;
 import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.StringReader;
+import java.lang.reflect.Proxy;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import static com.github.t1.wunderbar.junit.consumer.Level.INTEGRATION;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static com.github.t1.wunderbar.junit.consumer.WunderBarApiConsumer.NONE;
 import static com.github.t1.wunderbar.junit.consumer.WunderbarExpectationBuilder.given;
 import static org.assertj.core.api.BDDAssertions.contentOf;
@@ -28,7 +46,6 @@ class GraphQLGatewayTest {
     // TODO schema with non-null arguments
     // TODO schema with list arguments
     // TODO fail when selecting a field unknown to all backends
-    // TODO partial results when some backends fail
 
     @Service
     GraphQLAPI products;
@@ -66,6 +83,65 @@ class GraphQLGatewayTest {
         then(schema).isEqualTo(contentOf(file("src/test/resources/expected-schema.graphql")));
     }
 
+    @ParameterizedTest @EnumSource
+    void shouldKeepVersionWhenSchemasAreUnchanged(RunMode runMode) {
+        givenProductService(runMode);
+        givenPriceSchema(runMode);
+        gateway.supergraph = supergraph(
+            new FederatedSchemaBuilder("product", URI.create("urn:mock:product"), products),
+            new FederatedSchemaBuilder("price", URI.create("urn:mock:price"), prices));
+        gateway.supergraph.reload();
+        var version = gateway.supergraph.current();
+
+        gateway.supergraph.reload();
+
+        then(gateway.supergraph.current()).isSameAs(version);
+        then(version.number()).isEqualTo(1);
+        then(version.services()).extracting(FederatedGraphQLService::getName).containsExactly("product", "price");
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldRestoreFromSnapshot(RunMode runMode, @TempDir Path dir) {
+        givenProductService(runMode);
+        var snapshot = dir.resolve("snapshot.json");
+        var live = supergraph(new FederatedSchemaBuilder("product", URI.create("urn:mock:product"), products));
+        live.snapshotFile = Optional.of(snapshot.toString());
+        live.reload();
+
+        var restoring = supergraph(new FederatedSchemaBuilder("product", URI.create("urn:mock:unavailable"), reviews));
+        restoring.snapshotFile = Optional.of(snapshot.toString());
+        var restored = restoring.restore();
+
+        then(restored).isTrue();
+        then(restoring.current().sdls()).isEqualTo(live.current().sdls());
+        then(new SchemaPrinter().print(restoring.current().schema())).isEqualTo(new SchemaPrinter().print(live.current().schema()));
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldBootFromLiveServicesWhenSnapshotIsCorrupt(RunMode runMode, @TempDir Path dir) throws IOException {
+        givenProductService(runMode);
+        var snapshot = dir.resolve("snapshot.json");
+        Files.writeString(snapshot, "{\"services\":{\"product\":\"type Query { product(id: ID): Product }\"}}");
+        var supergraph = supergraph(new FederatedSchemaBuilder("product", URI.create("urn:mock:product"), products));
+        supergraph.snapshotFile = Optional.of(snapshot.toString());
+
+        then(supergraph.restore()).as("the SDL is valid JSON, but Product is undefined").isFalse();
+        supergraph.start();
+
+        then(supergraph.current().schema().getObjectType("Product")).isNotNull();
+    }
+
+    private Supergraph supergraph(FederatedSchemaBuilder... builders) {
+        var supergraph = new Supergraph();
+        supergraph.documentCacheSize = 10;
+        supergraph.persistedQueryCacheSize = 10;
+        supergraph.schemaTimeout = 10;
+        supergraph.builders = List.of(builders);
+        return supergraph;
+    }
+
     private File file(@SuppressWarnings("SameParameterValue") String relative) {
         var path = Path.of(".").normalize().toAbsolutePath();
         if (path.endsWith("target")) path = path.getParent(); // i.e. running in Quarkus Continuous Testing mode
@@ -83,6 +159,328 @@ class GraphQLGatewayTest {
         then(response.getData("product", Product.class)).isEqualTo(Product.builder().id("1").name("Table").build());
     }
 
+    @ParameterizedTest @EnumSource
+    void shouldBatchProductNames(RunMode runMode) {
+        setup(
+            productService(runMode));
+        givenRepresentations(products, "Product{__typename name }", List.of("1", "2"), """
+            "__typename": "Product",
+            "name": "Table"
+            """, """
+            "__typename": "Product",
+            "name": "Chair"
+            """);
+
+        var response = gateway.request("{table:product(id:\"1\"){name} chair:product(id:\"2\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("table", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(response.getData("chair", Product.class)).isEqualTo(Product.builder().name("Chair").build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldFailOnlyTheBatchedEntityWithAnError(RunMode runMode) {
+        setup(
+            productService(runMode));
+        given(products.request(GraphQLRequest.builder()
+            .query("query($representations:[_Any!]!) {_entities(representations:$representations){...on Product{__typename name }}}")
+            .variables(Json.createObjectBuilder()
+                .add("representations", Json.createArrayBuilder()
+                    .add(Json.createObjectBuilder().add("__typename", "Product").add("id", "1"))
+                    .add(Json.createObjectBuilder().add("__typename", "Product").add("id", "2")))
+                .build())
+            .build())
+        ).willReturn(GraphQLResponse.builder()
+            .data(parse("{\"_entities\": [{\"__typename\": \"Product\", \"name\": \"Table\"}, null]}"))
+            .errors(List.of(GraphQLError.builder().message("product 2 not found").path(List.of("_entities", 1)).build()))
+            .build());
+
+        var response = gateway.request("{table:product(id:\"1\"){name} chair:product(id:\"2\"){name}}", null);
+
+        then(response.getErrors()).hasSize(1);
+        then(response.getErrors().get(0).getMessage()).contains("[from service product at urn:mock:product]", "product 2 not found");
+        then(response.getData("table", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(response.getData("chair", Product.class)).isNull();
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldMergeFetchesOfSameServiceIntoOneRequest(RunMode runMode) {
+        setup(
+            productService(runMode));
+        givenRepresentations(products, "Product{__typename description name }", List.of("1", "2"), """
+            "__typename": "Product",
+            "description": "Four legs",
+            "name": "Table"
+            """, """
+            "__typename": "Product",
+            "description": "Four legs and a back",
+            "name": "Chair"
+            """);
+
+        var response = gateway.request("{table:product(id:\"1\"){name} chair:product(id:\"2\"){description}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("table", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(response.getData("chair", Product.class)).isEqualTo(Product.builder().description("Four legs and a back").build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldReuseFieldsOfSameEntity(RunMode runMode) {
+        givenProductService(runMode);
+        var productService = cachedService("product", products);
+        setup(productService);
+
+        var response = gateway.request("{table:product(id:\"1\"){id name} again:product(id:\"1\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("table", Product.class)).isEqualTo(Product.builder().id("1").name("Table").build());
+        then(response.getData("again", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(productService.getEntityCache().misses()).as("the second path doesn't even look into the cache").isEqualTo(2);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldReuseParsedDocument(RunMode runMode) {
+        setup(
+            productService(runMode));
+
+        gateway.request("{product(id:\"1\"){name}}", null);
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(gateway.supergraph.current().documentCache().misses()).isEqualTo(1);
+        then(gateway.supergraph.current().documentCache().hits()).isEqualTo(1);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldReuseQueryPlan(RunMode runMode) {
+        setup(
+            productService(runMode));
+
+        gateway.request("{product(id:\"1\"){name}}", null);
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        var planner = gateway.supergraph.current().planner();
+        then(planner.size()).isEqualTo(1);
+        then(planner.hits()).isEqualTo(1);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldGetPersistedQueryByHash(RunMode runMode) throws Exception {
+        setup(
+            productService(runMode));
+        var query = "{product(id:\"1\"){name}}";
+        var extensions = "{\"persistedQuery\":{\"version\":1,\"sha256Hash\":\"" + sha256(query) + "\"}}";
+
+        gateway.request(query, null, extensions);
+        var response = gateway.request(null, null, extensions);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(gateway.supergraph.current().documentCache().persistedQueries()).isEqualTo(1);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldFailUnknownPersistedQuery(RunMode runMode) throws Exception {
+        setup(
+            productService(runMode));
+        var extensions = "{\"persistedQuery\":{\"version\":1,\"sha256Hash\":\"" + sha256("{unknown}") + "\"}}";
+
+        var response = gateway.request(null, null, extensions);
+
+        then(response.getErrors()).extracting(GraphQLError::getMessage).containsExactly("PersistedQueryNotFound");
+        then(response.getData()).isNull();
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldReturnTimingWhenRequested(RunMode runMode) {
+        setup(
+            productService(runMode));
+        gateway.supergraph.slowOperations.size = 10;
+        gateway.supergraph.update(gateway.supergraph.current().services(), Map.of());
+        gateway.headers = header(Timing.HEADER, "true");
+
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        var spans = response.getExtensions().getJsonObject("timing").getJsonArray("spans").getValuesAs(JsonObject.class);
+        then(spans).extracting(span -> span.getString("kind") + " " + span.getString("name")).contains(
+            "parse ", "validate ", "fetch /product", "service product:[name]");
+        var slowest = gateway.supergraph.slowOperations.list();
+        then(slowest).hasSize(1);
+        then(slowest.get(0).query()).isEqualTo("{product(id:\"1\"){name}}");
+        then(slowest.get(0).timing()).containsKey("spans");
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldNotReturnTimingByDefault(RunMode runMode) {
+        setup(
+            productService(runMode));
+
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getExtensions()).isNull();
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldRejectTooDeepQuery(RunMode runMode) {
+        setup(
+            productService(runMode),
+            reviewService(runMode));
+        limits(supergraph -> supergraph.maxDepth = 3);
+
+        var response = gateway.request("{product(id:\"1\"){reviews{user{slug}}}}", null);
+
+        thenRejected(response, "depth", 3, 4);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldRejectTooManyAliases(RunMode runMode) {
+        setup(
+            productService(runMode));
+        limits(supergraph -> supergraph.maxAliases = 1);
+
+        var response = gateway.request("{table:product(id:\"1\"){name} chair:product(id:\"2\"){name}}", null);
+
+        thenRejected(response, "aliases", 1, 2);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldRejectTooManyFields(RunMode runMode) {
+        setup(
+            productService(runMode));
+        limits(supergraph -> supergraph.maxFields = 2);
+
+        var response = gateway.request("{product(id:\"1\"){id name description}}", null);
+
+        thenRejected(response, "fields", 2, 4);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldRejectTooExpensiveQuery(RunMode runMode) {
+        setup(
+            productService(runMode),
+            priceService(runMode));
+        limits(supergraph -> supergraph.maxCost = 1);
+
+        var response = gateway.request("{product(id:\"1\"){name price{tag}}}", null);
+
+        thenRejected(response, "cost", 1, 2);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldNotCountKeyOnlyFetchesAsCost(RunMode runMode) {
+        setup(
+            productService(runMode),
+            priceService(runMode));
+        limits(supergraph -> supergraph.maxCost = 1);
+
+        var response = gateway.request("{product(id:\"1\"){id name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().id("1").name("Table").build());
+    }
+
+    private void limits(Consumer<Supergraph> limits) {
+        limits.accept(gateway.supergraph);
+        gateway.supergraph.update(gateway.supergraph.current().services(), Map.of());
+    }
+
+    private static void thenRejected(GraphQLResponse response, String limit, int max, int actual) {
+        then(response.getData()).isNull();
+        then(response.getErrors()).hasSize(1);
+        var error = response.getErrors().get(0);
+        then(error.getMessage()).isEqualTo("operation exceeds the maximum " + limit + " of " + max + ": " + actual);
+        then(error.getExtensions()).containsEntry("code", "QUERY_LIMIT").containsEntry("limit", limit);
+    }
+
+    private static HttpHeaders header(String name, String value) {
+        return (HttpHeaders) Proxy.newProxyInstance(HttpHeaders.class.getClassLoader(), new Class<?>[]{HttpHeaders.class},
+            (proxy, method, args) -> (method.getName().equals("getHeaderString") && name.equals(args[0])) ? value : null);
+    }
+
+    private static String sha256(String query) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(query.getBytes(UTF_8)));
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldStreamResponse(RunMode runMode) {
+        setup(
+            productService(runMode));
+
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        var out = new ByteArrayOutputStream();
+        try (var generator = Json.createGenerator(out)) {
+            GatewayResponseWriter.write((GatewayResponse) response, generator);
+        }
+        then(out.toString(UTF_8)).isEqualTo("{\"data\":{\"product\":{\"name\":\"Table\"}}}");
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldCacheProductName(RunMode runMode) {
+        givenProductService(runMode);
+        var productService = cachedService("product", products);
+        setup(productService);
+
+        gateway.request("{product(id:\"1\"){name}}", null);
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(productService.getEntityCache().misses()).isEqualTo(1);
+        then(productService.getEntityCache().hits()).isEqualTo(1);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldFetchOnlyMissingFieldsFromCache(RunMode runMode) {
+        givenProductService(runMode);
+        var productService = cachedService("product", products);
+        setup(productService);
+        givenRepresentation(products, "Product{__typename description }", """
+            "__typename": "Product",
+            "description": "Four legs"
+            """);
+
+        gateway.request("{product(id:\"1\"){name}}", null);
+        var response = gateway.request("{product(id:\"1\"){name description}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").description("Four legs").build());
+        then(productService.getEntityCache().hits()).isEqualTo(1);
+        then(productService.getEntityCache().size()).isEqualTo(2);
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldNotCachePrivateFields(RunMode runMode) {
+        givenSchema(products, """
+            type Product «@key(fields: "id")»{
+              id: ID
+              name: String @cacheControl(scope: PRIVATE)
+            }
+            
+            "Query root"
+            type Query {
+              product(id: ID): Product
+            }
+            """.transform(runMode));
+        givenRepresentation(products, "Product{__typename name }", """
+            "__typename": "Product",
+            "name": "Table"
+            """);
+        var productService = cachedService("product", products);
+        setup(productService);
+
+        gateway.request("{product(id:\"1\"){name}}", null);
+        var response = gateway.request("{product(id:\"1\"){name}}", null);
+
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+        then(productService.getEntityCache().hits()).isZero();
+        then(productService.getEntityCache().size()).isZero();
+    }
+
     @ParameterizedTest @EnumSource
     void shouldGetProductPrice(RunMode runMode) {
         setup(
@@ -112,6 +510,182 @@ class GraphQLGatewayTest {
                 .build());
     }
 
+    @ParameterizedTest @EnumSource
+    void shouldGetPartialResultWhenOneServiceFails(RunMode runMode) {
+        setup(
+            productService(runMode),
+            failingPriceService(runMode));
+
+        var response = gateway.request("{product(id:\"1\"){name price{tag}}}", null);
+
+        then(response.getErrors()).hasSize(1);
+        then(response.getErrors().get(0).getMessage()).contains("[from service price at urn:mock:price]", "price service down");
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldShortCircuitWhenCircuitIsOpen(RunMode runMode) {
+        failingPriceService(runMode);
+        var circuitBreaker = new CircuitBreaker("price", 2, 50, 50, Duration.ZERO, Duration.ofMinutes(1));
+        setup(
+            productService(runMode),
+            new FederatedGraphQLService(new FederatedSchemaBuilder("price", URI.create("urn:mock:price"), prices,
+                new SubgraphClient(prices, FetchMode.ASYNC, ForkJoinPool.commonPool(), new ConcurrencyLimit(0), circuitBreaker))));
+        gateway.request("{product(id:\"1\"){name price{tag}}}", null);
+        gateway.request("{product(id:\"1\"){name price{tag}}}", null);
+
+        var response = gateway.request("{product(id:\"1\"){name price{tag}}}", null);
+
+        then(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        then(response.getErrors()).hasSize(1);
+        then(response.getErrors().get(0).getMessage()).contains("[from service price]: circuit breaker is open");
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldFetchByCompositeKey(RunMode runMode) {
+        givenSchema(products, """
+            type Product @key(fields: "id") @key(fields: "sku region") {
+              id: ID
+              sku: String
+              region: String
+              name: String
+            }
+            
+            type Query {
+              product(id: ID): Product
+              productBySku(sku: String, region: String): Product
+            }
+            """);
+        givenEntity(products, Json.createObjectBuilder().add("sku", "T-1").add("region", "EU"), "Product{__typename id name }", """
+            "__typename": "Product",
+            "id": "1",
+            "name": "Table"
+            """);
+        setup(service("product", products));
+
+        var response = gateway.request("{productBySku(sku:\"T-1\", region:\"EU\"){id name}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("productBySku", Product.class)).isEqualTo(Product.builder().id("1").name("Table").build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldTakeProvidedFieldWithoutCallingOwner(RunMode runMode) {
+        givenProductService(runMode);
+        givenSchema(reviews, """
+            type Product @extends @key(fields: "id") {
+              id: ID @external
+              name: String @external
+              reviews: [Review]
+            }
+            
+            type Query {
+              product(id: ID): Product @provides(fields: "name")
+            }
+            
+            type Review {
+              text: String
+            }
+            """);
+        givenRepresentation(reviews, "Product{__typename name reviews{__typename text } }", """
+            "__typename": "Product",
+            "name": "Table",
+            "reviews": [{"text": "The best four-legged table I've ever seen"}]
+            """);
+        var productService = cachedService("product", products);
+        setup(productService, service("review", reviews));
+
+        var response = gateway.request("{product(id:\"1\"){name reviews{text}}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder()
+            .name("Table")
+            .reviews(List.of(Review.builder().text("The best four-legged table I've ever seen").build()))
+            .build());
+        then(productService.getEntityCache().misses()).as("the product service is not called").isZero();
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldPassRequiredFieldsInRepresentation(RunMode runMode) {
+        givenRepresentation(products, "Product{__typename weight }", """
+            "__typename": "Product",
+            "weight": 12
+            """);
+        givenShippingService();
+
+        var response = gateway.request("{product(id:\"1\"){shippingEstimate}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().shippingEstimate(6).build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldMergeRequiredFieldsIntoFetchOfOwner(RunMode runMode) {
+        givenRepresentation(products, "Product{__typename name weight }", """
+            "__typename": "Product",
+            "name": "Table",
+            "weight": 12
+            """);
+        givenShippingService();
+
+        var response = gateway.request("{product(id:\"1\"){name shippingEstimate}}", null);
+
+        then(response.getErrors()).isNull();
+        then(response.getData("product", Product.class)).isEqualTo(Product.builder().name("Table").shippingEstimate(6).build());
+    }
+
+    @ParameterizedTest @EnumSource
+    void shouldExplainPlan(RunMode runMode) {
+        givenShippingService();
+        var explain = new ExplainResource();
+        explain.supergraph = gateway.supergraph;
+
+        var plan = explain.explain(GraphQLRequest.builder().query("{product(id:\"1\"){name shippingEstimate}}").build());
+
+        then(plan).isEqualTo(parse("""
+            {
+              "fetches": 2,
+              "stages": [
+                {"fetches": [{"id": 1, "service": "product", "type": "Product", "paths": ["product"],
+                              "fields": ["name", "weight"], "requiredBy": ["shipping"]}]},
+                {"fetches": [{"id": 2, "service": "shipping", "type": "Product", "paths": ["product"],
+                              "fields": ["shippingEstimate"], "dependsOn": [1]}]}
+              ]
+            }
+            """));
+    }
+
+    private void givenShippingService() {
+        givenSchema(products, """
+            type Product @key(fields: "id") {
+              id: ID
+              name: String
+              weight: Int
+            }
+            
+            type Query {
+              product(id: ID): Product
+            }
+            """);
+        givenSchema(prices, """
+            type Product @extends @key(fields: "id") {
+              id: ID @external
+              weight: Int @external
+              shippingEstimate: Int @requires(fields: "weight")
+            }
+            
+            type Query {
+              product(id: ID): Product
+            }
+            """);
+        givenEntity(prices, Json.createObjectBuilder().add("id", "1").add("weight", 12), "Product{__typename shippingEstimate }", """
+            "__typename": "Product",
+            "shippingEstimate": 6
+            """);
+        setup(service("product", products), service("shipping", prices));
+    }
+
     @ParameterizedTest @EnumSource
     void shouldGetProductReview(RunMode runMode) {
         setup(
@@ -145,10 +719,41 @@ class GraphQLGatewayTest {
     }
 
     private void setup(FederatedGraphQLService... services) {
-        this.gateway.schema = new SchemaMerger(List.of(services)).merge();
+        this.gateway.supergraph = new Supergraph();
+        this.gateway.supergraph.documentCacheSize = 10;
+        this.gateway.supergraph.persistedQueryCacheSize = 10;
+        this.gateway.supergraph.planCacheSize = 10;
+        this.gateway.supergraph.slowOperations = new SlowOperations();
+        this.gateway.supergraph.update(List.of(services), Map.of());
     }
 
     private FederatedGraphQLService priceService(RunMode runMode) {
+        givenPriceSchema(runMode);
+        givenRepresentation(prices, "Product{__typename price{__typename tag } }", """
+            "__typename": "Product",
+            "price": {"tag": "399.99 €"}
+            """);
+        return service("price", prices);
+    }
+
+    private FederatedGraphQLService failingPriceService(RunMode runMode) {
+        givenPriceSchema(runMode);
+        given(prices.request(GraphQLRequest.builder()
+            .query("query($representations:[_Any!]!) {_entities(representations:$representations)" +
+                   "{...on Product{__typename price{__typename tag } }}}")
+            .variables(Json.createObjectBuilder()
+                .add("representations", Json.createArrayBuilder().add(Json.createObjectBuilder()
+                    .add("__typename", "Product")
+                    .add("id", "1")))
+                .build())
+            .build())
+        ).willReturn(GraphQLResponse.builder()
+            .errors(List.of(GraphQLError.builder().message("price service down").build()))
+            .build());
+        return service("price", prices);
+    }
+
+    private void givenPriceSchema(RunMode runMode) {
         givenSchema(prices, """
             type Currency {
               code: String
@@ -177,14 +782,14 @@ class GraphQLGatewayTest {
               product(id: ID): Product
             }
             """.transform(runMode));
-        givenRepresentation(prices, "Product{__typename price{__typename tag } }", """
-            "__typename": "Product",
-            "price": {"tag": "399.99 €"}
-            """);
-        return service("price", prices);
     }
 
     private FederatedGraphQLService productService(RunMode runMode) {
+        givenProductService(runMode);
+        return service("product", products);
+    }
+
+    private void givenProductService(RunMode runMode) {
         givenSchema(products, """
             "Something you can buy"
             type Product «@key(fields: "id")»{
@@ -207,7 +812,6 @@ class GraphQLGatewayTest {
             "__typename": "Product",
             "name": "Table"
             """);
-        return service("product", products);
     }
 
     private FederatedGraphQLService reviewService(RunMode runMode) {
@@ -278,30 +882,50 @@ class GraphQLGatewayTest {
     }
 
     private static void givenRepresentation(GraphQLAPI service, String fragment, String data) {
+        givenRepresentations(service, fragment, List.of("1"), data);
+    }
+
+    private static void givenRepresentations(GraphQLAPI service, String fragment, List<String> ids, String... data) {
+        var representations = Json.createArrayBuilder();
+        ids.forEach(id -> representations.add(Json.createObjectBuilder()
+            .add("__typename", "Product")
+            .add("id", id)));
         given(service.request(GraphQLRequest.builder()
             .query("query($representations:[_Any!]!) {_entities(representations:$representations){...on " + fragment + "}}")
             .variables(Json.createObjectBuilder()
-                .add("representations", Json.createObjectBuilder()
-                    .add("__typename", "Product")
-                    .add("id", "1")
-                    .build())
+                .add("representations", representations)
                 .build())
             .build())
         ).willReturn(GraphQLResponse.builder().data(parse(
             "{\n" +
             "    \"_entities\": [\n" +
             "        {\n" +
-            data +
+            String.join("        },\n        {\n", data) +
             "        }\n" +
             "    ]\n" +
             "}"
         )).build());
     }
 
+    private static void givenEntity(GraphQLAPI service, JsonObjectBuilder representation, String fragment, String data) {
+        given(service.request(GraphQLRequest.builder()
+            .query("query($representations:[_Any!]!) {_entities(representations:$representations){...on " + fragment + "}}")
+            .variables(Json.createObjectBuilder()
+                .add("representations", Json.createArrayBuilder().add(representation.add("__typename", "Product")))
+                .build())
+            .build())
+        ).willReturn(GraphQLResponse.builder().data(parse("{\"_entities\": [{" + data + "}]}")).build());
+    }
+
     private static JsonObject parse(String json) {
         return Json.createReader(new StringReader(json)).readObject();
     }
 
+    private FederatedGraphQLService cachedService(@SuppressWarnings("SameParameterValue") String name, GraphQLAPI api) {
+        return new FederatedGraphQLService(new FederatedSchemaBuilder(name, URI.create("urn:mock:" + name), api)
+            .entityCache(10, Duration.ofMinutes(1)));
+    }
+
     private FederatedGraphQLService service(String name, GraphQLAPI api) {
         return new FederatedGraphQLService(new FederatedSchemaBuilder(name, URI.create("urn:mock:" + name), api));
     }
@@ -13,6 +13,7 @@ public class Product {
     private String description;
     private Price price;
     private List<Review> reviews;
+    private Integer shippingEstimate;
 
     @Override public String toString() {
         return "Product" +
@@ -20,6 +21,7 @@ public class Product {
                ((name == null) ? "" : ":name=" + name) +
                ((description == null) ? "" : ":description=" + description) +
                ((price == null) ? "" : ":price=" + price.tag) +
-               ((reviews == null) ? "" : ":reviews=" + reviews);
+               ((reviews == null) ? "" : ":reviews=" + reviews) +
+               ((shippingEstimate == null) ? "" : ":shippingEstimate=" + shippingEstimate);
     }
 }